@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the memory-access backends of the same resizable SPSC array queue
+ * in a single producer, single consumer (1P1C) setup.
+ * <p>
+ * VARHANDLE needs Java 9+ and the {@code src9} classes on the classpath.
+ * <p>
+ * Example: java -jar benchmarks.jar BackendPerf -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Group)
+public class BackendPerf {
+    static final Integer VALUE = 1;
+
+    @Param({ "ATOMIC", "UNSAFE", "VARHANDLE" })
+    public ConcurrentBackend backend;
+
+    @Param({ "16" })
+    public int initial;
+
+    @Param({ "1024" })
+    public int capacity;
+
+    Queue<Object> q;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        if (!backend.isAvailable()) {
+            throw new IllegalStateException(backend + " is not available on this runtime");
+        }
+        q = backend.newArrayQueue(initial, capacity);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public boolean offer() {
+        return q.offer(VALUE);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public void poll(Blackhole bh) {
+        bh.consume(q.poll());
+    }
+}
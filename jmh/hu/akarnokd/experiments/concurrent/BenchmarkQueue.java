@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+
+import hu.akarnokd.experiments.concurrent.multiqueue.SpscArrayQueue2;
+import rx.internal.util.unsafe.SpscArrayQueue;
+
+/**
+ * Common offer/poll view over the queues under benchmark so the
+ * same benchmark body can drive all of them.
+ */
+public interface BenchmarkQueue {
+    boolean offer(Integer value);
+
+    Integer poll();
+
+    /**
+     * Creates a queue by its simple name.
+     * @param name the queue name, see the {@code @Param} lists of the benchmarks
+     * @param capacity the (maximum) capacity; the segment size of PTLLinkedQueue,
+     * ignored by ConcurrentLinkedQueue
+     * @return the queue view
+     */
+    static BenchmarkQueue create(String name, int capacity) {
+        switch (name) {
+        case "PTLQueue": {
+            PTLQueue<Integer> q = new PTLQueue<>(capacity);
+            return of(q::offer, q::poll);
+        }
+        case "PTLLinkedQueue": {
+            PTLLinkedQueue<Integer> q = new PTLLinkedQueue<>(capacity);
+            return of(q::offer, q::poll);
+        }
+        case "IETLQueue": {
+            IETLQueue<Integer> q = new IETLQueue<>(capacity);
+            return of(q::offer, q::poll);
+        }
+        case "AtomicArrayQueue":
+            return of(new AtomicArrayQueue(16, capacity));
+        case "AtomicArrayQueueUnsafe":
+            return of(new AtomicArrayQueueUnsafe(16, capacity));
+        case "MpscAtomicArrayQueue":
+            return of(new MpscAtomicArrayQueue(16, capacity));
+        case "AtomicLinkedArrayQueue":
+            return of(new AtomicLinkedArrayQueue(128, capacity));
+        case "SpscArrayQueue2":
+            return new BenchmarkQueue() {
+                final SpscArrayQueue2<Integer, Integer> q = new SpscArrayQueue2<>(capacity);
+                Integer last;
+                @Override
+                public boolean offer(Integer value) {
+                    return q.offer(value, value);
+                }
+                @Override
+                public Integer poll() {
+                    last = null;
+                    q.poll((a, b) -> last = a);
+                    return last;
+                }
+            };
+        case "ArrayBlockingQueue":
+            return of(new ArrayBlockingQueue<>(capacity));
+        case "ConcurrentLinkedQueue":
+            return of(new ConcurrentLinkedQueue<>());
+        case "RxSpscArrayQueue":
+            return of(new SpscArrayQueue<>(capacity));
+        default:
+            throw new IllegalArgumentException("Unknown queue: " + name);
+        }
+    }
+
+    interface Offer {
+        boolean offer(Integer value);
+    }
+
+    interface Poll {
+        Integer poll();
+    }
+
+    static BenchmarkQueue of(Offer offer, Poll poll) {
+        return new BenchmarkQueue() {
+            @Override
+            public boolean offer(Integer value) {
+                return offer.offer(value);
+            }
+            @Override
+            public Integer poll() {
+                return poll.poll();
+            }
+        };
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static BenchmarkQueue of(Queue q) {
+        return new BenchmarkQueue() {
+            @Override
+            public boolean offer(Integer value) {
+                return q.offer(value);
+            }
+            @Override
+            public Integer poll() {
+                return (Integer)q.poll();
+            }
+        };
+    }
+}
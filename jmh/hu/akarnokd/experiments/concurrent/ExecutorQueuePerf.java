@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Task throughput of a ThreadPoolExecutor using the given queue as its work queue:
+ * each operation submits a batch of tasks and waits for all of them to run.
+ * <p>
+ * The "PTLQueue-blocking-park" case parks the idle workers without spinning first, and
+ * with 16 threads most of them are parked between batches: as {@link BlockingWaitStrategy}
+ * wakes every waiter on each signal, this shows the cost of the herd it wakes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Thread)
+public class ExecutorQueuePerf {
+    @Param({ "PTLQueue", "PTLQueue-blocking", "PTLQueue-blocking-park", "ArrayBlockingQueue", "LinkedBlockingQueue" })
+    public String queue;
+
+    @Param({ "1", "4", "16" })
+    public int threads;
+
+    @Param({ "1000" })
+    public int tasks;
+
+    ThreadPoolExecutor exec;
+
+    @Setup
+    public void setup() {
+        int capacity = 64 * 1024;
+        BlockingQueue<Runnable> q;
+        switch (queue) {
+        case "PTLQueue":
+            q = new PTLQueue<>(capacity, new SpinYieldWaitStrategy());
+            break;
+        case "PTLQueue-blocking":
+            q = new PTLQueue<>(capacity, new BlockingWaitStrategy());
+            break;
+        case "PTLQueue-blocking-park":
+            q = new PTLQueue<>(capacity, new BlockingWaitStrategy(0));
+            break;
+        case "ArrayBlockingQueue":
+            q = new ArrayBlockingQueue<>(capacity);
+            break;
+        case "LinkedBlockingQueue":
+            q = new LinkedBlockingQueue<>(capacity);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown queue: " + queue);
+        }
+        exec = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, q);
+        exec.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void teardown() {
+        exec.shutdownNow();
+    }
+
+    @Benchmark
+    public void executeBatch() throws InterruptedException {
+        int n = tasks;
+        CountDownLatch cdl = new CountDownLatch(n);
+        Runnable task = cdl::countDown;
+        for (int i = 0; i < n; i++) {
+            exec.execute(task);
+        }
+        cdl.await();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Cost of the small-to-large transition of AtomicArrayQueue and AtomicArrayQueueUnsafe.
+ * <ul>
+ * <li>{@code growOnce}: the offer which reaches the traffic {@code threshold} and moves the
+ * {@code initial - 1} elements of the not yet full small buffer into the large buffer.</li>
+ * <li>{@code offerPollSmall} and {@code offerPollLarge}: steady-state offer/poll on each side of the switch.</li>
+ * <li>{@code handoffSwitch}: a consumer thread drains the same small buffer while the producer
+ * offers the switching element; the time until the consumer holds that element includes its
+ * stall on the tombstones. {@code handoffSmall} is the same without the switch as the baseline.</li>
+ * </ul>
+ * Both share the algorithm of AtomicArrayQueueBase and differ only in the element access. Run via
+ * {@link #main(String[])} to add the GC profiler for the allocation rates.
+ * <p>
+ * A single offer is too short for a per-invocation setup and timestamps, so {@code growOnce} and
+ * the handoffs run in {@link Mode#SingleShotTime} over a batch of {@link #BATCH} calls: the
+ * iteration setup prebuilds one queue per call and the score is the batch time divided by
+ * {@code BATCH}. The prebuilt queues aren't all in the cache, which the steady-state
+ * benchmarks don't pay.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class GrowPathPerf {
+    static final Integer VALUE = 1;
+    /** The calls per single-shot iteration, each on its own prebuilt queue. */
+    static final int BATCH = 256;
+
+    @Param({ "AtomicArrayQueue", "AtomicArrayQueueUnsafe" })
+    public String queue;
+
+    @Param({ "8", "64" })
+    public int initial;
+
+    @Param({ "1024", "65536" })
+    public int maxCapacity;
+
+    /** The per-instance high traffic threshold, at least {@code initial}. */
+    @Param({ "128", "1024", "8192" })
+    public long threshold;
+
+    Queue<Object> create(long threshold) {
+        switch (queue) {
+        case "AtomicArrayQueue":
+            return new AtomicArrayQueue(initial, maxCapacity, threshold);
+        case "AtomicArrayQueueUnsafe":
+            return new AtomicArrayQueueUnsafe(initial, maxCapacity, threshold);
+        default:
+            throw new IllegalArgumentException("Unknown queue: " + queue);
+        }
+    }
+
+    /**
+     * Creates a small queue whose next offer is the {@code threshold}th one, holding
+     * {@code initial - 1} elements so that the offer doesn't double the buffer instead.
+     */
+    Queue<Object> createAtThreshold(long threshold) {
+        Queue<Object> q = create(threshold);
+        for (long i = initial - 1; i < this.threshold; i++) {
+            q.offer(VALUE);
+            q.poll();
+        }
+        for (int i = 1; i < initial; i++) {
+            q.offer(VALUE);
+        }
+        return q;
+    }
+
+    /**
+     * A batch of queues for one single-shot iteration.
+     */
+    public abstract static class Batch {
+        Queue<Object>[] queues;
+        int index;
+        @SuppressWarnings("unchecked")
+        void fill(GrowPathPerf p, long threshold) {
+            queues = new Queue[BATCH];
+            for (int i = 0; i < BATCH; i++) {
+                queues[i] = p.createAtThreshold(threshold);
+            }
+            index = 0;
+        }
+        Queue<Object> next() {
+            int i = index;
+            if (i == BATCH) {
+                throw new IllegalStateException("The batch size should be " + BATCH);
+            }
+            index = i + 1;
+            return queues[i];
+        }
+    }
+
+    /** Small queues whose next offer switches to the large buffer. */
+    @State(Scope.Thread)
+    public static class AtThreshold extends Batch {
+        @Setup(Level.Iteration)
+        public void setup(GrowPathPerf p) {
+            fill(p, p.threshold);
+        }
+    }
+
+    /** A queue which stays small as long as the threshold allows. */
+    @State(Scope.Thread)
+    public static class Small {
+        Queue<Object> q;
+        @Setup(Level.Iteration)
+        public void setup(GrowPathPerf p) {
+            q = p.create(Long.MAX_VALUE);
+        }
+    }
+
+    /** A queue already grown to the maximum capacity. */
+    @State(Scope.Thread)
+    public static class Large {
+        Queue<Object> q;
+        @Setup(Level.Iteration)
+        public void setup(GrowPathPerf p) {
+            q = p.create(p.threshold);
+            for (int i = 0; i <= p.maxCapacity / 2; i++) {
+                q.offer(VALUE);
+            }
+            q.clear();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public boolean growOnce(AtThreshold s) {
+        return s.next().offer(VALUE);
+    }
+
+    @Benchmark
+    public Object offerPollSmall(Small s) {
+        s.q.offer(VALUE);
+        return s.q.poll();
+    }
+
+    @Benchmark
+    public Object offerPollLarge(Large s) {
+        s.q.offer(VALUE);
+        return s.q.poll();
+    }
+
+    /**
+     * A consumer thread which polls the current queue and counts the elements received;
+     * each call hands it the next prebuilt queue holding {@code initial - 1} elements.
+     */
+    @State(Scope.Thread)
+    public static class Handoff extends Batch {
+        volatile Queue<Object> current;
+        /** Written by the consumer thread only. */
+        volatile long received;
+        int initial;
+        volatile boolean running;
+        Thread consumer;
+
+        @Setup(Level.Iteration)
+        public void start(GrowPathPerf p, BenchmarkParams params) {
+            current = null;
+            initial = p.initial;
+            fill(p, params.getBenchmark().endsWith("Switch") ? p.threshold : Long.MAX_VALUE);
+            // the new consumer counts from zero
+            received = 0L;
+            running = true;
+            consumer = new Thread(() -> {
+                long r = 0L;
+                while (running) {
+                    Queue<Object> q = current;
+                    if (q != null && q.poll() != null) {
+                        received = ++r;
+                    }
+                }
+            }, "GrowPathPerf-consumer");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void stop() throws InterruptedException {
+            running = false;
+            consumer.join();
+        }
+
+        long handoff() {
+            Queue<Object> q = next();
+            // the previous queue was drained completely
+            long t = received + initial;
+            current = q;
+            q.offer(VALUE);
+            long r;
+            while ((r = received) < t);
+            return r;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public long handoffSwitch(Handoff s) {
+        return s.handoff();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public long handoffSmall(Handoff s) {
+        return s.handoff();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(GrowPathPerf.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opts).run();
+    }
+}
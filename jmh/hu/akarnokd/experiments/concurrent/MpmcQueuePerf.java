@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Throughput and per-operation latency of the multi-producer and/or
+ * multi-consumer capable queues in the NP1C, 1PNC and NPNC configurations.
+ * <p>
+ * Every operation spins until it succeeds, so a queue which rejects offers
+ * or returns empty polls quickly doesn't score higher. The unbounded queues
+ * are left out because the free-running producers would fill the heap; they
+ * participate in {@link QueueLatencyPerf}.
+ * <p>
+ * The thread counts of each group can be changed from the command line via
+ * {@code -tg}, for example {@code -tg 7,1} for the p3c1 group.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Group)
+public class MpmcQueuePerf {
+    static final Integer VALUE = 1;
+
+    @Param({ "PTLQueue", "IETLQueue", "ArrayBlockingQueue" })
+    public String queue;
+
+    @Param({ "1024" })
+    public int capacity;
+
+    BenchmarkQueue q;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        q = BenchmarkQueue.create(queue, capacity);
+    }
+
+    static void offer(BenchmarkQueue q, Control control) {
+        while (!q.offer(VALUE) && !control.stopMeasurement);
+    }
+
+    static Integer poll(BenchmarkQueue q, Control control) {
+        Integer v;
+        while ((v = q.poll()) == null && !control.stopMeasurement);
+        return v;
+    }
+
+    @Benchmark
+    @Group("p3c1")
+    @GroupThreads(3)
+    public void offerNP1C(Control control) {
+        offer(q, control);
+    }
+
+    @Benchmark
+    @Group("p3c1")
+    @GroupThreads(1)
+    public Integer pollNP1C(Control control) {
+        return poll(q, control);
+    }
+
+    @Benchmark
+    @Group("p1c3")
+    @GroupThreads(1)
+    public void offer1PNC(Control control) {
+        offer(q, control);
+    }
+
+    @Benchmark
+    @Group("p1c3")
+    @GroupThreads(3)
+    public Integer poll1PNC(Control control) {
+        return poll(q, control);
+    }
+
+    @Benchmark
+    @Group("p2c2")
+    @GroupThreads(2)
+    public void offerNPNC(Control control) {
+        offer(q, control);
+    }
+
+    @Benchmark
+    @Group("p2c2")
+    @GroupThreads(2)
+    public Integer pollNPNC(Control control) {
+        return poll(q, control);
+    }
+}
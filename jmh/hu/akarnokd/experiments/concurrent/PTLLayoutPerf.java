@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Compares the separate turns/values arrays of PTLQueue with the per-slot
+ * cells of PTLCellQueue: every thread offers and then polls a value.
+ * <p>
+ * Run via {@link #main(String[])} for 2, 4, 8 and 16 threads, or set the
+ * thread count with {@code -t}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class PTLLayoutPerf {
+    static final Integer VALUE = 1;
+
+    @Param({ "separate", "cell", "cell-padded" })
+    public String layout;
+
+    @Param({ "1024" })
+    public int capacity;
+
+    PTLQueue<Integer> separate;
+    PTLCellQueue<Integer> cell;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        switch (layout) {
+        case "separate":
+            separate = new PTLQueue<>(capacity);
+            break;
+        case "cell":
+            cell = new PTLCellQueue<>(capacity, false);
+            break;
+        case "cell-padded":
+            cell = new PTLCellQueue<>(capacity, true);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown layout: " + layout);
+        }
+    }
+
+    @Benchmark
+    public Integer offerPoll() {
+        if (separate != null) {
+            separate.offer(VALUE);
+            return separate.poll();
+        }
+        cell.offer(VALUE);
+        return cell.poll();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int t : new int[] { 2, 4, 8, 16 }) {
+            Options opts = new OptionsBuilder()
+                    .include(PTLLayoutPerf.class.getSimpleName())
+                    .threads(t)
+                    .build();
+            new Runner(opts).run();
+        }
+    }
+}
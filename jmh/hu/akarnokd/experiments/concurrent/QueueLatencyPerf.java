@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Round-trip latency percentiles: the benchmark thread offers into one queue,
+ * an echo thread moves the value into a second queue and the benchmark thread
+ * spins until it gets it back. Each queue has exactly one producer and one consumer,
+ * so the SPSC-only queues participate as well.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class QueueLatencyPerf {
+    static final Integer VALUE = 1;
+
+    @Param({ "PTLQueue", "PTLLinkedQueue", "IETLQueue", "AtomicArrayQueue", "AtomicArrayQueueUnsafe", 
+        "SpscArrayQueue2", "ArrayBlockingQueue", "ConcurrentLinkedQueue", "RxSpscArrayQueue" })
+    public String queue;
+
+    @Param({ "1024" })
+    public int capacity;
+
+    BenchmarkQueue ping;
+    BenchmarkQueue pong;
+    Thread echo;
+    volatile boolean running;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        ping = BenchmarkQueue.create(queue, capacity);
+        pong = BenchmarkQueue.create(queue, capacity);
+        BenchmarkQueue in = ping;
+        BenchmarkQueue out = pong;
+        running = true;
+        echo = new Thread(() -> {
+            while (running) {
+                Integer v = in.poll();
+                if (v != null) {
+                    while (!out.offer(v));
+                }
+            }
+        }, "QueueLatencyPerf-echo");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() throws InterruptedException {
+        running = false;
+        echo.join();
+    }
+
+    @Benchmark
+    public Integer roundTrip() {
+        while (!ping.offer(VALUE));
+        Integer v;
+        while ((v = pong.poll()) == null);
+        return v;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Single producer, single consumer (1P1C) throughput and per-operation
+ * latency of every bounded queue, including the SPSC-only ones.
+ * <p>
+ * Both sides spin until their operation succeeds, see {@link MpmcQueuePerf}.
+ * <p>
+ * Example: java -jar benchmarks.jar SpscQueuePerf -prof gc
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@State(Scope.Group)
+public class SpscQueuePerf {
+    @Param({ "PTLQueue", "IETLQueue", "AtomicArrayQueue", "AtomicArrayQueueUnsafe", "MpscAtomicArrayQueue",
+        "AtomicLinkedArrayQueue", "SpscArrayQueue2", "ArrayBlockingQueue", "RxSpscArrayQueue" })
+    public String queue;
+
+    @Param({ "1024" })
+    public int capacity;
+
+    BenchmarkQueue q;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        q = BenchmarkQueue.create(queue, capacity);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public void offer(Control control) {
+        MpmcQueuePerf.offer(q, control);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public Integer poll(Control control) {
+        return MpmcQueuePerf.poll(q, control);
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.*;
+
+/**
+ * A single-producer single-consumer circular array which doubles its capacity each time
+ * it fills its current buffer, up to the maximum capacity, and jumps to the maximum
+ * capacity once it sees high traffic.
+ * <p>
+ * The buffers below the maximum capacity are consumed via CAS so the producer can
+ * tombstone their elements when moving them into the next buffer.
+ * <p>
+ * Optionally, it shrinks back to a fresh small buffer once the occupancy stayed at or
+ * below a watermark for a number of consecutive offers and the queue is empty. The producer
+ * publishes the small buffer and tombstones the large buffer's next slot so a consumer
+ * looking at the large buffer reloads instead of reporting empty.
+ * <p>
+ * The size is computed from the reader and writer indexes. The iterator is weakly
+ * consistent and doesn't support removal.
+ * <p>
+ * The algorithm is written once against the abstract element accessors; each backend
+ * subclass implements them as final methods over its {@link ElementAccess} singleton, so
+ * the backend call inside each accessor is monomorphic. The accessor calls in the inherited
+ * methods such as offer and poll are shared by the subclasses: with several backends in use
+ * they see several receiver types and may become megamorphic, unless inlined into a caller
+ * which knows the exact queue class.
+ * @param <A> the array type of the backend
+ */
+public abstract class AtomicArrayQueueBase<A> extends AbstractQueue<Object> {
+    static final Object TOMBSTONE = new Object();
+    /** The default high traffic threshold, can be overridden via the {@code rx.ring-buffer.resize-traffic} property. */
+    static final long HIGH_TRAFFIC_QUEUE_THRESHOLD;
+    static {
+        long _size = 128;
+
+        // possible system property for overriding
+        String sizeFromProperty = System.getProperty("rx.ring-buffer.resize-traffic");
+        if (sizeFromProperty != null) {
+            try {
+                _size = Integer.parseInt(sizeFromProperty);
+            } catch (Exception e) {
+                System.err.println("Failed to set 'rx.ring-buffer.resize-traffic' with value " + sizeFromProperty + " => " + e.getMessage());
+            }
+        }
+        HIGH_TRAFFIC_QUEUE_THRESHOLD = _size;
+    }
+    final int smallMask;
+    final int largeMask;
+    final long highTrafficThreshold;
+    final int shrinkWatermark;
+    final int quietPeriod;
+    volatile A buffer;
+    volatile long readerIndex;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<AtomicArrayQueueBase> READER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(AtomicArrayQueueBase.class, "readerIndex");
+    volatile long writerIndex;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<AtomicArrayQueueBase> WRITER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(AtomicArrayQueueBase.class, "writerIndex");
+    /** The writer index when the initial size buffer was last started; accessed by the producer only. */
+    long smallStart;
+    /** Number of consecutive quiet offers into the large buffer; accessed by the producer only. */
+    int quietCount;
+    /**
+     * Constructs a queue over the given backend.
+     * @param initial the initial capacity
+     * @param maxCapacity the maximum capacity
+     * @param highTrafficThreshold the number of offers since the initial size buffer was started
+     * after which the queue moves to the maximum capacity, {@code Long.MAX_VALUE} to grow
+     * only when full
+     * @param shrinkWatermark an offer into a grown buffer counts as quiet if at most
+     * this many elements were in the queue, less than the initial capacity
+     * @param quietPeriod the number of consecutive quiet offers after which the queue
+     * shrinks the next time it is found empty, zero to never shrink
+     */
+    public AtomicArrayQueueBase(int initial, int maxCapacity, 
+            long highTrafficThreshold, int shrinkWatermark, int quietPeriod) {
+        int is = Pow2.pow2(initial);
+        int ms = Pow2.pow2(maxCapacity);
+        if (highTrafficThreshold <= 0L) {
+            throw new IllegalArgumentException("highTrafficThreshold > 0 required but it was " + highTrafficThreshold);
+        }
+        if (quietPeriod < 0) {
+            throw new IllegalArgumentException("quietPeriod >= 0 required but it was " + quietPeriod);
+        }
+        if (shrinkWatermark < 0 || shrinkWatermark >= is) {
+            throw new IllegalArgumentException("shrinkWatermark in [0, " + is + ") required but it was " + shrinkWatermark);
+        }
+        
+        this.smallMask = is - 1;
+        this.largeMask = Math.max(ms, is) - 1;
+        this.highTrafficThreshold = highTrafficThreshold;
+        this.shrinkWatermark = shrinkWatermark;
+        this.quietPeriod = quietPeriod;
+    
+        buffer = newArray(is);
+    }
+    
+    final long lpReaderIndex() {
+        return readerIndex;
+    }
+    final long lvReaderIndex() {
+        return readerIndex;
+    }
+    final void soReaderIndex(long value) {
+        READER_INDEX.lazySet(this, value);
+    }
+
+    final long lpWriterIndex() {
+        return writerIndex;
+    }
+    final long lvWriterIndex() {
+        return writerIndex;
+    }
+    final void soWriterIndex(long value) {
+        WRITER_INDEX.lazySet(this, value);
+    }
+
+    final A lvBuffer() {
+        return buffer;
+    }
+    final void soBuffer(A b) {
+        buffer = b;
+    }
+    
+    abstract A newArray(int length);
+    abstract int length(A b);
+    abstract Object lpElement(A b, int offset);
+    abstract Object lvElement(A b, int offset);
+    abstract void soElement(A b, int offset, Object value);
+    abstract boolean casElement(A b, int offset, Object expected, Object value);
+    
+    final int offsetSmall(long index, int mask) {
+        return ((int) index & mask);
+    }
+    
+    final int offsetLarge(long index, int mask) {
+        return ((int) index & mask);
+    }
+    
+    /**
+     * Moves the elements not yet consumed from the buffer b into a new buffer with the given mask.
+     */
+    final A grow(A b, long wi, int wo, int mask, int nextMask) {
+        A b2 = newArray(nextMask + 1);
+        
+        boolean caughtUp = false;
+        int j = offsetLarge(wi - 1, nextMask);
+        for (int i = wo - 1; i >= 0; i--, j = (j - 1) & nextMask) {
+            Object o = lvElement(b, i);
+            if (o == null || !casElement(b, i, o, TOMBSTONE)) {
+                caughtUp = true;
+                break;
+            }
+            soElement(b2, j, o);
+        }
+        if (!caughtUp) {
+            for (int i = mask; i >= wo; i--, j = (j - 1) & nextMask) {
+                Object o = lvElement(b, i);
+                if (o == null || !casElement(b, i, o, TOMBSTONE)) {
+                    break;
+                }
+                soElement(b2, j, o);
+            }
+        }
+        
+        soBuffer(b2);
+        quietCount = 0;
+        
+        return b2;
+    }
+    
+    /**
+     * Counts the offer of index {@code wi} into the grown buffer towards the quiet period
+     * and shrinks back if the period is over and the queue is empty.
+     * @return the small buffer {@code o} was offered into, null if not shrunk
+     */
+    final A shrink(A b, long wi, int lm, Object o) {
+        int qp = quietPeriod;
+        if (qp == 0) {
+            return null;
+        }
+        long ri = lvReaderIndex();
+        if (wi - ri > shrinkWatermark) {
+            quietCount = 0;
+            return null;
+        }
+        int qc = quietCount;
+        if (qc < qp) {
+            quietCount = qc + 1;
+            return null;
+        }
+        if (ri != wi) {
+            return null;
+        }
+        int sm = smallMask;
+        A b2 = newArray(sm + 1);
+        soElement(b2, offsetSmall(wi, sm), o);
+        soBuffer(b2);
+        soElement(b, offsetLarge(wi, lm), TOMBSTONE);
+        smallStart = wi;
+        quietCount = 0;
+        return b2;
+    }
+    
+    @Override
+    public final boolean offer(Object o) {
+        long wi = lpWriterIndex();
+        A b = lvBuffer();
+        int lm = largeMask;
+        int bl = length(b);
+        if (bl > lm) {
+            int wo = offsetLarge(wi, lm);
+            if (lvElement(b, wo) != null) {
+                return false;
+            }
+            if (shrink(b, wi, lm, o) == null) {
+                soElement(b, wo, o);
+            }
+        } else {
+            int m = bl - 1;
+            int wo = offsetSmall(wi, m);
+            if (wi - smallStart >= highTrafficThreshold) {
+                b = grow(b, wi, wo, m, lm);
+                soElement(b, offsetLarge(wi, lm), o);
+            } else
+            if (lvElement(b, wo) != null) {
+                int m2 = (m << 1) + 1;
+                b = grow(b, wi, wo, m, m2);
+                soElement(b, offsetSmall(wi, m2), o);
+            } else
+            if (m == smallMask || shrink(b, wi, m, o) == null) {
+                soElement(b, wo, o);
+            }
+        }
+        soWriterIndex(wi + 1);
+        return true;
+    }
+    /**
+     * Offers up to the given number of values from the supplier; stops early only if
+     * the queue is at its maximum capacity and full.
+     * <p>
+     * Once at the maximum capacity, the values are stored with ordered stores and the
+     * writer index is published once; these offers don't count towards the quiet period.
+     * Before that, the values go through {@link #offer(Object)} as any of them may trigger
+     * the growth.
+     * @param supplier the supplier of the values, should not return null
+     * @param limit the maximum number of values to offer
+     * @return the number of values offered
+     */
+    public final int fill(Supplier<?> supplier, int limit) {
+        int lm = largeMask;
+        A b = lvBuffer();
+        int i = 0;
+        // below the maximum capacity, offer grows instead of failing
+        while (length(b) <= lm) {
+            if (i == limit) {
+                return i;
+            }
+            offer(supplier.get());
+            i++;
+            b = lvBuffer();
+        }
+        long wi = lpWriterIndex();
+        long n = Math.min(limit - i, lm + 1 - (wi - lvReaderIndex()));
+        for (long k = 0; k < n; k++) {
+            soElement(b, offsetLarge(wi + k, lm), supplier.get());
+        }
+        soWriterIndex(wi + n);
+        return i + (int)n;
+    }
+    @Override
+    public final Object poll() {
+        int lm = largeMask;
+        long ri = lpReaderIndex();
+        for (;;) {
+            A b = lvBuffer();
+            int bl = length(b);
+            if (bl > lm) {
+                int ro = offsetLarge(ri, lm);
+                Object o = lvElement(b, ro);
+                if (o == null) {
+                    return null;
+                } else
+                if (o == TOMBSTONE) {
+                    continue;
+                }
+                soElement(b, ro, null);
+                soReaderIndex(ri + 1);
+                return o;
+            } else {
+                int ro = offsetSmall(ri, bl - 1);
+                Object o = lvElement(b, ro);
+                if (o == null) {
+                    return null;
+                } else
+                if (o == TOMBSTONE || !casElement(b, ro, o, null)) {
+                    continue;
+                }
+                soReaderIndex(ri + 1);
+                return o;
+            }
+        }
+    }
+    /**
+     * Polls up to the given number of values and hands them to the consumer in order.
+     * <p>
+     * Once at the maximum capacity, the available run is determined from the writer index,
+     * the values are read with plain loads and cleared with ordered stores. Before that,
+     * each value is taken via CAS as the producer may be tombstoning them. The reader
+     * index is published once at the end.
+     * @param consumer the consumer of the values
+     * @param limit the maximum number of values to poll
+     * @return the number of values polled
+     */
+    public final int drain(Consumer<Object> consumer, int limit) {
+        int lm = largeMask;
+        long ri = lpReaderIndex();
+        A b = lvBuffer();
+        int n = 0;
+        for (;;) {
+            int bl = length(b);
+            if (bl > lm) {
+                // the elements below the writer index are all in this buffer unless it shrunk
+                long k = Math.min(limit - n, lvWriterIndex() - ri);
+                long j = 0;
+                for (; j < k; j++) {
+                    int ro = offsetLarge(ri + j, lm);
+                    Object o = lpElement(b, ro);
+                    if (o == TOMBSTONE) {
+                        break;
+                    }
+                    soElement(b, ro, null);
+                    consumer.accept(o);
+                }
+                ri += j;
+                n += (int)j;
+                if (j == k) {
+                    break;
+                }
+                b = lvBuffer();
+            } else {
+                if (n == limit) {
+                    break;
+                }
+                int ro = offsetSmall(ri, bl - 1);
+                Object o = lvElement(b, ro);
+                if (o == null) {
+                    break;
+                }
+                if (o == TOMBSTONE || !casElement(b, ro, o, null)) {
+                    b = lvBuffer();
+                    continue;
+                }
+                ri++;
+                n++;
+                consumer.accept(o);
+            }
+        }
+        soReaderIndex(ri);
+        return n;
+    }
+    @Override
+    public final Object peek() {
+        int lm = largeMask;
+        long ri = lpReaderIndex();
+        for (;;) {
+            A b = lvBuffer();
+            int bl = length(b);
+            int ro = bl > lm ? offsetLarge(ri, lm) : offsetSmall(ri, bl - 1);
+            Object o = lvElement(b, ro);
+            if (o != TOMBSTONE) {
+                return o;
+            }
+        }
+    }
+    /**
+     * Returns a weakly consistent iterator over the elements between the reader and
+     * writer indexes at the time of the call, skipping the ones consumed while iterating.
+     */
+    @Override
+    public final Iterator<Object> iterator() {
+        return new Itr();
+    }
+    final class Itr implements Iterator<Object> {
+        final long end;
+        long index;
+        Object next;
+        Itr() {
+            this.index = lvReaderIndex();
+            this.end = lvWriterIndex();
+            advance();
+        }
+        void advance() {
+            A b = lvBuffer();
+            while (index < end) {
+                long ri = lvReaderIndex();
+                if (index < ri) {
+                    index = ri;
+                    continue;
+                }
+                Object o = lvElement(b, offsetLarge(index, length(b) - 1));
+                if (o == TOMBSTONE) {
+                    b = lvBuffer();
+                    continue;
+                }
+                index++;
+                if (o != null) {
+                    next = o;
+                    return;
+                }
+            }
+            next = null;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public Object next() {
+            Object o = next;
+            if (o == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return o;
+        }
+    }
+    /**
+     * Returns the number of elements between the reader and writer indexes.
+     */
+    @Override
+    public final int size() {
+        long after = lvReaderIndex();
+        for (;;) {
+            long before = after;
+            long wi = lvWriterIndex();
+            after = lvReaderIndex();
+            if (before == after) {
+                return (int)(wi - after);
+            }
+        }
+    }
+    @Override
+    public final boolean isEmpty() {
+        return lvWriterIndex() == lvReaderIndex();
+    }
+}
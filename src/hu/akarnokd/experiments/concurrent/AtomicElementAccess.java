@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Element access over AtomicReferenceArray; plain loads are volatile and plain stores
+ * are lazySets as Java 8 has nothing weaker.
+ */
+public final class AtomicElementAccess extends ElementAccess<AtomicReferenceArray<Object>> {
+    public static final AtomicElementAccess INSTANCE = new AtomicElementAccess();
+    private AtomicElementAccess() {
+    }
+    @Override
+    public AtomicReferenceArray<Object> newArray(int length) {
+        return new AtomicReferenceArray<>(length);
+    }
+    @Override
+    public int length(AtomicReferenceArray<Object> array) {
+        return array.length();
+    }
+    @Override
+    public Object lpElement(AtomicReferenceArray<Object> array, int index) {
+        return array.get(index);
+    }
+    @Override
+    public Object lvElement(AtomicReferenceArray<Object> array, int index) {
+        return array.get(index);
+    }
+    @Override
+    public void spElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        array.lazySet(index, value);
+    }
+    @Override
+    public void soElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        array.lazySet(index, value);
+    }
+    @Override
+    public boolean casElement(AtomicReferenceArray<Object> array, int index, Object expected, Object value) {
+        return array.compareAndSet(index, expected, value);
+    }
+}
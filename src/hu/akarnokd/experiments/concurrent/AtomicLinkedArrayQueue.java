@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A single-producer single-consumer queue made of fixed size array chunks.
+ * <p>
+ * When the producer finds its chunk full, it puts the element into a new chunk
+ * at the same offset, links the new chunk from the last slot of the current one
+ * and marks the offset with a forwarding pointer. The consumer follows the
+ * forwarding pointer and continues in the new chunk. Elements are never copied.
+ * <p>
+ * The consumer hands the chunk it leaves, which is empty by then, back to the producer
+ * through a single spare slot, so a lagging consumer doesn't cause an allocation on every
+ * chunk switch; only a second switch before the consumer left the previous chunk allocates.
+ * <p>
+ * The iterator is weakly consistent and doesn't support removal.
+ * <p>
+ * Unbounded unless a maximum capacity is given.
+ */
+public class AtomicLinkedArrayQueue extends AbstractQueue<Object> {
+    static final Object HAS_NEXT = new Object();
+    final int mask;
+    final long maxCapacity;
+    final PaddedAtomicLong producerIndex;
+    final PaddedAtomicLong consumerIndex;
+    /** Accessed by the producer only. */
+    AtomicReferenceArray<Object> producerBuffer;
+    /** Written by the consumer only, read by the iterator as well. */
+    volatile AtomicReferenceArray<Object> consumerBuffer;
+    /** A chunk the consumer has left, waiting to be reused by the producer. */
+    final AtomicReference<AtomicReferenceArray<Object>> spare;
+    /**
+     * Constructs an unbounded queue.
+     * @param chunkSize the chunk size, rounded up to a power of 2
+     */
+    public AtomicLinkedArrayQueue(int chunkSize) {
+        this(chunkSize, Long.MAX_VALUE);
+    }
+    /**
+     * Constructs a bounded queue.
+     * @param chunkSize the chunk size, rounded up to a power of 2
+     * @param maxCapacity the maximum number of elements in the queue
+     */
+    public AtomicLinkedArrayQueue(int chunkSize, long maxCapacity) {
+        int cs = Pow2.pow2(Math.max(2, chunkSize));
+        if (maxCapacity <= 0L) {
+            throw new IllegalArgumentException("maxCapacity > 0 required but it was " + maxCapacity);
+        }
+        this.mask = cs - 1;
+        this.maxCapacity = maxCapacity;
+        this.producerIndex = new PaddedAtomicLong();
+        this.consumerIndex = new PaddedAtomicLong();
+        AtomicReferenceArray<Object> b = new AtomicReferenceArray<>(cs + 1);
+        this.producerBuffer = b;
+        this.consumerBuffer = b;
+        this.spare = new AtomicReference<>();
+    }
+
+    long lvProducerIndex() {
+        return producerIndex.get();
+    }
+    void soProducerIndex(long value) {
+        producerIndex.lazySet(value);
+    }
+    long lvConsumerIndex() {
+        return consumerIndex.get();
+    }
+    void soConsumerIndex(long value) {
+        consumerIndex.lazySet(value);
+    }
+
+    Object lvElement(AtomicReferenceArray<Object> b, int offset) {
+        return b.get(offset);
+    }
+    void soElement(AtomicReferenceArray<Object> b, int offset, Object value) {
+        b.lazySet(offset, value);
+    }
+    @SuppressWarnings("unchecked")
+    AtomicReferenceArray<Object> lvNext(AtomicReferenceArray<Object> b) {
+        return (AtomicReferenceArray<Object>)b.get(mask + 1);
+    }
+    void soNext(AtomicReferenceArray<Object> b, AtomicReferenceArray<Object> next) {
+        b.lazySet(mask + 1, next);
+    }
+
+    int offset(long index, int mask) {
+        return ((int) index & mask);
+    }
+
+    @Override
+    public boolean offer(Object o) {
+        if (o == null) {
+            throw new NullPointerException("Null values not allowed here!");
+        }
+        long pi = lvProducerIndex();
+        if (pi - lvConsumerIndex() >= maxCapacity) {
+            return false;
+        }
+        int m = mask;
+        AtomicReferenceArray<Object> b = producerBuffer;
+        int offset = offset(pi, m);
+        // keep one slot free so the forwarding pointer always has a place
+        if (lvElement(b, offset(pi + 1, m)) == null) {
+            soElement(b, offset, o);
+        } else {
+            AtomicReferenceArray<Object> next = spare.get();
+            if (next != null) {
+                spare.lazySet(null);
+            } else {
+                next = new AtomicReferenceArray<>(m + 2);
+            }
+            producerBuffer = next;
+            soElement(next, offset, o);
+            soNext(b, next);
+            soElement(b, offset, HAS_NEXT);
+        }
+        soProducerIndex(pi + 1);
+        return true;
+    }
+    @Override
+    public Object poll() {
+        long ci = lvConsumerIndex();
+        AtomicReferenceArray<Object> b = consumerBuffer;
+        int offset = offset(ci, mask);
+        Object o = lvElement(b, offset);
+        if (o == null) {
+            return null;
+        }
+        if (o == HAS_NEXT) {
+            AtomicReferenceArray<Object> next = lvNext(b);
+            consumerBuffer = next;
+            // every other slot of b has been consumed already
+            soNext(b, null);
+            soElement(b, offset, null);
+            if (spare.get() == null) {
+                spare.lazySet(b);
+            }
+            b = next;
+            o = lvElement(b, offset);
+        }
+        soElement(b, offset, null);
+        soConsumerIndex(ci + 1);
+        return o;
+    }
+    @Override
+    public Object peek() {
+        AtomicReferenceArray<Object> b = consumerBuffer;
+        int offset = offset(lvConsumerIndex(), mask);
+        Object o = lvElement(b, offset);
+        if (o == HAS_NEXT) {
+            return lvElement(lvNext(b), offset);
+        }
+        return o;
+    }
+    /**
+     * Returns a weakly consistent iterator over the elements between the consumer and
+     * producer indexes at the time of the call, skipping the ones consumed while iterating.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new Itr();
+    }
+    final class Itr implements Iterator<Object> {
+        final long end;
+        long index;
+        AtomicReferenceArray<Object> buffer;
+        Object next;
+        Itr() {
+            this.end = lvProducerIndex();
+            restart();
+            advance();
+        }
+        /** Continues from the consumer's current position. */
+        void restart() {
+            for (;;) {
+                long ci = lvConsumerIndex();
+                AtomicReferenceArray<Object> b = consumerBuffer;
+                if (lvConsumerIndex() == ci) {
+                    index = ci;
+                    buffer = b;
+                    return;
+                }
+            }
+        }
+        void advance() {
+            while (index < end) {
+                AtomicReferenceArray<Object> b = buffer;
+                int offset = offset(index, mask);
+                Object o = lvElement(b, offset);
+                if (o == HAS_NEXT) {
+                    b = lvNext(b);
+                    if (b == null) {
+                        restart();
+                        continue;
+                    }
+                    o = lvElement(b, offset);
+                }
+                // the chunk may have been recycled once the consumer passed the index
+                if (index < lvConsumerIndex()) {
+                    restart();
+                    continue;
+                }
+                buffer = b;
+                index++;
+                if (o != null) {
+                    next = o;
+                    return;
+                }
+            }
+            next = null;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public Object next() {
+            Object o = next;
+            if (o == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return o;
+        }
+    }
+    @Override
+    public int size() {
+        long ci = lvConsumerIndex();
+        for (;;) {
+            long pi = lvProducerIndex();
+            long ci2 = lvConsumerIndex();
+            if (ci == ci2) {
+                return (int)Math.min(pi - ci, Integer.MAX_VALUE);
+            }
+            ci = ci2;
+        }
+    }
+    @Override
+    public boolean isEmpty() {
+        return lvProducerIndex() == lvConsumerIndex();
+    }
+}
@@ -1,185 +1,110 @@
-package hu.akarnokd.experiments.concurrent;
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
 
-import java.util.concurrent.atomic.*;
+package hu.akarnokd.experiments.concurrent;
 
-import rx.functions.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
 
 /**
- * A lock-free append-only resizable array with optimized first bank of 16 elements.
+ * The {@link AtomicResizableArrayBase} over AtomicReferenceArray banks, appending
+ * at the index reserved from the counter.
  */
-public final class AtomicResizableArray {
-    final AtomicReferenceArray<AtomicReferenceArray<Object>> arrays;
-    final AtomicInteger count;
+public final class AtomicResizableArray extends AtomicResizableArrayBase<AtomicReferenceArray<Object>> {
     public AtomicResizableArray() {
-        arrays = new AtomicReferenceArray<>(27);
-        count = new AtomicInteger();
+        super();
+    }
+    /**
+     * Constructs an array which takes its banks from and returns them to the given pool.
+     * @param pool the bank pool, may be shared between arrays
+     */
+    public AtomicResizableArray(BankPool<AtomicReferenceArray<Object>> pool) {
+        super(pool);
     }
     public AtomicResizableArray(int initialCapacity) {
         this();
         // TODO
         count.set(0); // StoreLoad barrier
     }
+    @Override
+    final AtomicReferenceArray<Object> newArray(int length) {
+        return AtomicElementAccess.INSTANCE.newArray(length);
+    }
+    @Override
+    final int length(AtomicReferenceArray<Object> array) {
+        return AtomicElementAccess.INSTANCE.length(array);
+    }
+    @Override
+    final Object lpElement(AtomicReferenceArray<Object> array, int index) {
+        return AtomicElementAccess.INSTANCE.lpElement(array, index);
+    }
+    @Override
+    final Object lvElement(AtomicReferenceArray<Object> array, int index) {
+        return AtomicElementAccess.INSTANCE.lvElement(array, index);
+    }
+    @Override
+    final void spElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        AtomicElementAccess.INSTANCE.spElement(array, index, value);
+    }
+    @Override
+    final void soElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        AtomicElementAccess.INSTANCE.soElement(array, index, value);
+    }
+    @Override
+    final boolean casElement(AtomicReferenceArray<Object> array, int index, Object expected, Object value) {
+        return AtomicElementAccess.INSTANCE.casElement(array, index, expected, value);
+    }
     public void add(Object value) {
         if (value == null) {
             throw new NullPointerException("value != null required");
         }
-        int index = count.getAndIncrement();
-
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        AtomicReferenceArray<Object> array;
-        if (index < 16) {
-            array = as.get(0);
-            if (array == null) {
-                array = new AtomicReferenceArray<>(16);
-                if (!as.compareAndSet(0, null, array)) {
-                    array = as.get(0);
-                }
-            }
-            array.lazySet(index, value);
-        } else {
-            int bankRaw = 32 - Integer.numberOfLeadingZeros(index);
-            int bankCorr = bankRaw - 4;
-            int offset = (index & ((1 << bankRaw) - 1) >> 1);
-            array = as.get(bankCorr);
-            if (array == null) {
-                int bankSize = 1 << (bankRaw - 1);
-                try {
-                    array = new AtomicReferenceArray<>(bankSize);
-                    if (!as.compareAndSet(bankCorr, null, array)) {
-                        array = as.get(bankCorr);
-                    }
-                } catch (OutOfMemoryError ex) {
-                    int retries = 128;
-                    while ((array = as.get(bankCorr)) == null && retries-- > 0);
-                    if (array == null) {
-                        throw ex;
-                    }
-                }
-            }            
-            array.lazySet(offset, value);
-        }
-    }
-    public int size() {
-        return count.get();
-    }
-    public int getAndClear() {
-        int c = count.get();
-        count.lazySet(0);
-        return c;
+        set(count.getAndIncrement(), value);
     }
     /**
-     * Returns the value at the specified index and spins
-     * until the value becomes visible.
-     * @param index
-     * @return
+     * Appends the given range of values at consecutive indexes reserved with a single
+     * counter update.
+     * @param src the source array
+     * @param off the index of the first value in src
+     * @param len the number of values
+     * @throws NullPointerException if any of the values is null, before anything is added
      */
-    public Object get(int index) {
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        AtomicReferenceArray<Object> array;
-        if (index < 16) {
-            array = as.get(0);
-            if (array != null) {
-                Object o = array.get(index);
-                if (o != null) {
-                    return o;
-                }
-            }
-        } else {
-            int bankRaw = 32 - Integer.numberOfLeadingZeros(index);
-            int bankCorr = bankRaw - 4;
-            int offset = (index & ((1 << bankRaw) - 1) >> 1);
-            array = as.get(bankCorr);
-            if (array != null) {
-                Object o = array.get(offset);
-                if (o != null) {
-                    return o;
-                }
-            }
+    public void addAll(Object[] src, int off, int len) {
+        if (off < 0 || len < 0 || off > src.length - len) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + src.length);
         }
-        throw new IndexOutOfBoundsException();
-    }
-    /**
-     * Clears the counter to zero and the contents of the arrays to null.
-     * Should not run concurrently with any add.
-     */
-    public void lazyClear() {
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        int n = as.length();
-        for (int i = 0; i < n; i++) {
-            AtomicReferenceArray<Object> ara = as.get(i);
-            if (ara != null) {
-                int m = ara.length();
-                if (m < 128) {
-                    for (int j = 0; j < m; j += 4) {
-                        ara.lazySet(j, null);
-                    }
-                } else {
-                    for (int j = 0; j < m; j += 4) {
-                        if (ara.get(j) == null) {
-                            break;
-                        }
-                        ara.lazySet(j, null);
-                        ara.lazySet(j + 1, null);
-                        ara.lazySet(j + 2, null);
-                        ara.lazySet(j + 3, null);
-                    }
-                }
+        if (len == 0) {
+            return;
+        }
+        for (int i = off; i < off + len; i++) {
+            if (src[i] == null) {
+                throw new NullPointerException("value != null required at " + i);
             }
         }
-        count.lazySet(0);
+        setRange(reserve(len), src, off, len);
     }
-    /**
-     * Deallocates all arrays and resets the counter to zero.
-     * Should not run concurrently with any add.
-     */
-    public void lazyReset() {
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        int n = as.length();
-        for (int i = 0; i < n; i++) {
-            as.lazySet(i, null);
-        }		
+    public int getAndClear() {
+        int c = count.get();
         count.lazySet(0);
+        return c;
     }
-    public void lazyForEach(Action1<Object> action) {
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        int n = as.length();
-        for (int i = 0; i < n; i++) {
-            AtomicReferenceArray<Object> ara = as.get(i);
-            if (ara != null) {
-                int m = ara.length();
-                for (int j = 0; j < m; j++) {
-                    Object t1 = ara.get(j);
-                    if (t1 == null) {
-                        return;
-                    }
-                    action.call(t1);
-                }
-            }
-        }
-    }
-    public interface Pred1<T> {
+    public interface Pred1<T> extends Predicate<T> {
         boolean accept(T t);
-    }
-    public boolean lazyConsumeWhile(Pred1<Object> action) {
-        AtomicReferenceArray<AtomicReferenceArray<Object>> as = arrays;
-        int n = as.length();
-        for (int i = 0; i < n; i++) {
-            AtomicReferenceArray<Object> ara = as.get(i);
-            if (ara != null) {
-                int m = ara.length();
-                for (int j = 0; j < m; j++) {
-                    Object t1 = ara.get(j);
-                    if (t1 == null) {
-                        return true;
-                    }
-                    boolean a = action.accept(t1);
-                    ara.lazySet(j, null);
-                    if (!a) {
-                        return false;
-                    }
-                }
-            }
+        @Override
+        default boolean test(T t) {
+            return accept(t);
         }
-        return true;
     }
 }
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.*;
+import java.util.stream.StreamSupport;
+
+import rx.functions.Action1;
+
+/**
+ * A lock-free append-only resizable array with optimized first bank of 16 elements;
+ * bank {@code k > 0} holds {@code 2^(k + 3)} elements.
+ * <p>
+ * The algorithm is written once against the abstract element accessors, which each backend
+ * subclass implements as final methods. The size is the number of slots up to the highest
+ * index reserved or written, tracked in a counter.
+ * <p>
+ * Writers either append, {@link #insert(int, Object) insert} at an explicit index or
+ * {@link #reserve(int) reserve} a range and fill it in any order. Readers use
+ * {@link #getOrNull(int)}, {@link #get(int)} which fails fast, or wait for the slot with
+ * {@link #get(int, long, TimeUnit)}.
+ * <p>
+ * The {@link #spliterator()} splits along the bank boundaries so a parallel traversal
+ * hands whole banks to the workers.
+ * <p>
+ * With a {@link BankPool}, the banks are taken from the pool when allocated and returned
+ * to it, cleared, by {@link #lazyReset()}.
+ * @param <A> the array type of the backend
+ */
+public abstract class AtomicResizableArrayBase<A> {
+    final A arrays;
+    final AtomicInteger count;
+    /** The pool of the banks, null if not pooling. */
+    final BankPool<A> pool;
+    /** The wait strategy of the timed get; stateless, shared by all arrays. */
+    static final WaitStrategy DEFAULT_WAIT = new ProgressiveParkWaitStrategy();
+    public AtomicResizableArrayBase() {
+        this(null);
+    }
+    public AtomicResizableArrayBase(BankPool<A> pool) {
+        this.arrays = newArray(27);
+        this.count = new AtomicInteger();
+        this.pool = pool;
+    }
+    abstract A newArray(int length);
+    abstract int length(A array);
+    abstract Object lpElement(A array, int index);
+    abstract Object lvElement(A array, int index);
+    abstract void spElement(A array, int index, Object value);
+    abstract void soElement(A array, int index, Object value);
+    abstract boolean casElement(A array, int index, Object expected, Object value);
+    static int bankOf(int index) {
+        if (index < 16) {
+            return 0;
+        }
+        return 28 - Integer.numberOfLeadingZeros(index);
+    }
+    static int offsetOf(int index) {
+        if (index < 16) {
+            return index;
+        }
+        return index & (Integer.highestOneBit(index) - 1);
+    }
+    static int bankSize(int bank) {
+        return bank == 0 ? 16 : 1 << (bank + 3);
+    }
+    static int bankStart(int bank) {
+        return bank == 0 ? 0 : 1 << (bank + 3);
+    }
+    @SuppressWarnings("unchecked")
+    final A lvBank(int bank) {
+        return (A)lvElement(arrays, bank);
+    }
+    /**
+     * Returns the given bank, allocating it if necessary.
+     */
+    @SuppressWarnings("unchecked")
+    final A bank(int bank) {
+        A as = arrays;
+        A array = (A)lvElement(as, bank);
+        if (array == null) {
+            try {
+                BankPool<A> p = pool;
+                A fresh = p != null ? p.acquire(bank) : null;
+                if (fresh == null) {
+                    fresh = newArray(bankSize(bank));
+                }
+                if (casElement(as, bank, null, fresh)) {
+                    array = fresh;
+                } else {
+                    array = (A)lvElement(as, bank);
+                    if (p != null) {
+                        p.release(bank, fresh);
+                    }
+                }
+            } catch (OutOfMemoryError ex) {
+                int retries = 128;
+                while ((array = (A)lvElement(as, bank)) == null && retries-- > 0);
+                if (array == null) {
+                    throw ex;
+                }
+            }
+        }
+        return array;
+    }
+    /**
+     * Stores the value at the given index without touching the counter.
+     */
+    final void set(int index, Object value) {
+        if (value == null) {
+            throw new NullPointerException("value != null required");
+        }
+        soElement(bank(bankOf(index)), offsetOf(index), value);
+    }
+    /**
+     * Stores {@code len} values of {@code src} from {@code off} at the indexes starting with
+     * {@code index}: allocates the banks the range touches first, then writes them bank by bank.
+     * The values should be non-null.
+     */
+    final void setRange(int index, Object[] src, int off, int len) {
+        int end = index + len;
+        int firstBank = bankOf(index);
+        int lastBank = bankOf(end - 1);
+        for (int b = firstBank; b <= lastBank; b++) {
+            bank(b);
+        }
+        int i = index;
+        for (int b = firstBank; b <= lastBank; b++) {
+            A ara = lvBank(b);
+            int base = bankStart(b);
+            int bankEnd = Math.min(end, base + bankSize(b));
+            for (; i < bankEnd; i++) {
+                soElement(ara, i - base, src[off++]);
+            }
+        }
+    }
+    /**
+     * Nulls the slot at the given index; the consumer side of a slot handed over by
+     * {@link #lvGet(int)}.
+     */
+    final void clear(int index) {
+        A array = lvBank(bankOf(index));
+        if (array != null) {
+            soElement(array, offsetOf(index), null);
+        }
+    }
+    /**
+     * Unlinks the given bank, which should contain only nulls, and offers it to the pool.
+     * Should not run concurrently with writes into the bank.
+     */
+    @SuppressWarnings("unchecked")
+    final void recycleBank(int bank) {
+        A as = arrays;
+        A ara = (A)lvElement(as, bank);
+        if (ara != null) {
+            soElement(as, bank, null);
+            BankPool<A> p = pool;
+            if (p != null) {
+                p.release(bank, ara);
+            }
+        }
+    }
+    /**
+     * Raises the counter to at least the given value.
+     */
+    final void countAtLeast(int n) {
+        AtomicInteger c = count;
+        for (;;) {
+            int v = c.get();
+            if (v >= n || c.compareAndSet(v, n)) {
+                return;
+            }
+        }
+    }
+    /**
+     * @return the value at the given index or null if not yet visible
+     */
+    final Object lvGet(int index) {
+        A array = lvBank(bankOf(index));
+        if (array != null) {
+            return lvElement(array, offsetOf(index));
+        }
+        return null;
+    }
+    /**
+     * Stores the value at the given index and raises the size to cover it.
+     * @param index the index, reserved or not
+     * @param value the value, not null
+     */
+    public final void insert(int index, Object value) {
+        set(index, value);
+        countAtLeast(index + 1);
+    }
+    /**
+     * Reserves {@code len} consecutive indexes after the ones reserved so far; the caller
+     * fills them via {@link #insert(int, Object)} in any order.
+     * @param len the number of indexes
+     * @return the first index reserved
+     */
+    public final int reserve(int len) {
+        if (len < 0) {
+            throw new IllegalArgumentException("len >= 0 required but it was " + len);
+        }
+        return count.getAndAdd(len);
+    }
+    /**
+     * @param index the index
+     * @return the value at the index or null if not yet visible
+     */
+    public final Object getOrNull(int index) {
+        return lvGet(index);
+    }
+    /**
+     * Returns the value at the specified index.
+     * @param index the index
+     * @return the value
+     * @throws IndexOutOfBoundsException if the value is not yet visible
+     */
+    public final Object get(int index) {
+        Object o = lvGet(index);
+        if (o != null) {
+            return o;
+        }
+        throw new IndexOutOfBoundsException("Not visible: " + index);
+    }
+    /**
+     * Returns the value at the specified index, waiting at most the given time for it
+     * with spinning, yielding and then parking.
+     * @param index the index
+     * @param time the maximum time to wait
+     * @param unit the unit of the time
+     * @return the value or null if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public final Object get(int index, long time, TimeUnit unit) throws InterruptedException {
+        return get(index, DEFAULT_WAIT, time, unit);
+    }
+    /**
+     * Returns the value at the specified index, waiting at most the given time for it
+     * according to the wait strategy.
+     * <p>
+     * The writers don't signal the strategy, a strategy which waits for a signal, such as
+     * {@link BlockingWaitStrategy}, notices the value only once its wait times out.
+     * @param index the index
+     * @param ws the wait strategy
+     * @param time the maximum time to wait
+     * @param unit the unit of the time
+     * @return the value or null if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public final Object get(int index, WaitStrategy ws, long time, TimeUnit unit) throws InterruptedException {
+        Object o = lvGet(index);
+        if (o != null) {
+            return o;
+        }
+        long nanos = unit.toNanos(time);
+        long deadline = System.nanoTime() + nanos;
+        int round = 0;
+        try {
+            for (;;) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (nanos <= 0L) {
+                    return null;
+                }
+                round = ws.idle(round, nanos);
+                o = lvGet(index);
+                if (o != null) {
+                    return o;
+                }
+                nanos = deadline - System.nanoTime();
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    public final int size() {
+        return count.get();
+    }
+    /**
+     * Clears the counter to zero and the contents of the arrays to null.
+     * Should not run concurrently with any add.
+     */
+    public final void lazyClear() {
+        A as = arrays;
+        int n = length(as);
+        for (int i = 0; i < n; i++) {
+            A ara = lvBank(i);
+            if (ara != null) {
+                int m = length(ara);
+                for (int j = 0; j < m; j++) {
+                    if (lpElement(ara, j) == null) {
+                        break;
+                    }
+                    spElement(ara, j, null);
+                }
+            }
+        }
+        count.lazySet(0);
+    }
+    /**
+     * Clears the counter to zero and nulls the slots below it, without probing for the first
+     * null; the slots at and above the counter are expected to be null already.
+     * Should not run concurrently with any add.
+     */
+    public final void lazyClearUsed() {
+        clearUsed(count.get());
+        count.lazySet(0);
+    }
+    /**
+     * Nulls the slots below the given index, bank by bank.
+     */
+    final void clearUsed(int end) {
+        for (int b = 0; b < 27 && bankStart(b) < end; b++) {
+            A ara = lvBank(b);
+            if (ara != null) {
+                int m = Math.min(bankSize(b), end - bankStart(b));
+                for (int j = 0; j < m; j++) {
+                    spElement(ara, j, null);
+                }
+            }
+        }
+    }
+    /**
+     * Deallocates all arrays and resets the counter to zero; with a pool, the banks
+     * are cleared up to the counter and offered to the pool.
+     * Should not run concurrently with any add.
+     */
+    @SuppressWarnings("unchecked")
+    public final void lazyReset() {
+        A as = arrays;
+        int n = length(as);
+        BankPool<A> p = pool;
+        if (p != null) {
+            clearUsed(count.get());
+        }
+        for (int i = 0; i < n; i++) {
+            A ara = (A)lpElement(as, i);
+            spElement(as, i, null);
+            // the pool may be shared, unlink before another array can take the bank
+            if (p != null && ara != null) {
+                p.release(i, ara);
+            }
+        }
+        count.lazySet(0);
+    }
+    /**
+     * Calls the action with the elements in index order up to the first one not yet visible.
+     */
+    public final void lazyForEach(Action1<Object> action) {
+        A as = arrays;
+        int n = length(as);
+        for (int i = 0; i < n; i++) {
+            A ara = lvBank(i);
+            if (ara == null) {
+                return;
+            }
+            int m = length(ara);
+            for (int j = 0; j < m; j++) {
+                Object o = lvElement(ara, j);
+                if (o == null) {
+                    return;
+                }
+                action.call(o);
+            }
+        }
+    }
+    /**
+     * Hands the elements in index order to the predicate and clears them until the predicate
+     * returns false or an element is not yet visible; the element rejected is cleared as well.
+     * @return false if the predicate stopped the consumption
+     */
+    public final boolean lazyConsumeWhile(Predicate<Object> action) {
+        A as = arrays;
+        int n = length(as);
+        for (int i = 0; i < n; i++) {
+            A ara = lvBank(i);
+            if (ara == null) {
+                return true;
+            }
+            int m = length(ara);
+            for (int j = 0; j < m; j++) {
+                Object o = lvElement(ara, j);
+                if (o == null) {
+                    return true;
+                }
+                boolean a = action.test(o);
+                spElement(ara, j, null);
+                if (!a) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    /**
+     * Returns a spliterator over the indexes below {@link #size()} at the time of the call,
+     * skipping the slots not yet visible; like the other lazy methods, it should not run
+     * concurrently with writes to these indexes.
+     * <p>
+     * It splits off the last bank of its range first, which is about the half of it as the
+     * banks double in size; a range within a single bank is halved down to 1024 elements.
+     * @return the spliterator
+     */
+    public final Spliterator<Object> spliterator() {
+        return new BankSpliterator(0, count.get());
+    }
+    /**
+     * Calls the action with the visible elements below {@link #size()}, in parallel on the
+     * ForkJoinPool common pool and in no particular order.
+     * @param action the action, called concurrently
+     */
+    public final void parallelForEach(Consumer<Object> action) {
+        StreamSupport.stream(spliterator(), true).forEach(action);
+    }
+    final class BankSpliterator implements Spliterator<Object> {
+        /** The minimum number of elements of a split within a bank. */
+        static final int MIN_SPLIT = 1024;
+        int index;
+        final int end;
+        BankSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+        @Override
+        public Spliterator<Object> trySplit() {
+            int lo = index;
+            int hi = end;
+            if (hi - lo < 2) {
+                return null;
+            }
+            int lastBank = bankOf(hi - 1);
+            int mid;
+            if (bankOf(lo) != lastBank) {
+                mid = bankStart(lastBank);
+            } else
+            if (hi - lo >= 2 * MIN_SPLIT) {
+                mid = (lo + hi) >>> 1;
+            } else {
+                return null;
+            }
+            index = mid;
+            return new BankSpliterator(lo, mid);
+        }
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            int e = end;
+            for (int i = index; i < e; ) {
+                Object o = lvGet(i);
+                index = ++i;
+                if (o != null) {
+                    action.accept(o);
+                    return true;
+                }
+            }
+            return false;
+        }
+        @Override
+        public void forEachRemaining(Consumer<? super Object> action) {
+            int i = index;
+            int e = end;
+            index = e;
+            while (i < e) {
+                int bank = bankOf(i);
+                int bankEnd = Math.min(e, bankStart(bank) + bankSize(bank));
+                A ara = lvBank(bank);
+                if (ara != null) {
+                    int base = bankStart(bank);
+                    for (; i < bankEnd; i++) {
+                        Object o = lvElement(ara, i - base);
+                        if (o != null) {
+                            action.accept(o);
+                        }
+                    }
+                }
+                i = bankEnd;
+            }
+        }
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
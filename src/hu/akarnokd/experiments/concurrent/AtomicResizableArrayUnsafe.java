@@ -1,228 +1,65 @@
-package hu.akarnokd.experiments.concurrent;
-
-import java.util.function.Predicate;
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
 
-import rx.functions.Action1;
+package hu.akarnokd.experiments.concurrent;
 
 /**
- * A lock-free append-only resizable array with optimized first bank of 16 elements.
+ * The {@link AtomicResizableArrayBase} over Object[] banks accessed via sun.misc.Unsafe.
  */
-public final class AtomicResizableArrayUnsafe {
-    final Object[][] arrays;
-    static final long P_ARRAY_OFFSET;
-    static final int P_ARRAY_SHIFT;
-    static final int P_ARRAY_DIFF;
-    static {
-        P_ARRAY_OFFSET = UnsafeAccess.UNSAFE.arrayBaseOffset(Object[].class);
-        P_ARRAY_DIFF = UnsafeAccess.UNSAFE.arrayIndexScale(Object[].class);
-        int is = 2;
-        if (P_ARRAY_DIFF > 8) {
-            throw new IllegalStateException("Unsupported array scale: " + P_ARRAY_DIFF);
-        } else
-        if (P_ARRAY_DIFF == 8) {
-            is = 3;
-        }
-        P_ARRAY_SHIFT = is;
-        
-    }
+public final class AtomicResizableArrayUnsafe extends AtomicResizableArrayBase<Object[]> {
     public AtomicResizableArrayUnsafe() {
-        arrays = new Object[27][];
-    }
-    public AtomicResizableArrayUnsafe(int initialCapacity) {
-        this();
-        // TODO
-    }
-    void soElement(Object array, long offset, Object o) {
-        UnsafeAccess.UNSAFE.putOrderedObject(array, offset, o);
-    }
-    void spElement(Object array, long offset, Object o) {
-        UnsafeAccess.UNSAFE.putObject(array, offset, o);
-    }
-    Object lvElement(Object array, long offset) {
-        return UnsafeAccess.UNSAFE.getObjectVolatile(array, offset);
-    }
-    Object lpElement(Object array, long offset) {
-        return UnsafeAccess.UNSAFE.getObject(array, offset);
+        super();
     }
-    boolean casElement(Object array, long offset, Object expected, Object value) {
-        return UnsafeAccess.UNSAFE.compareAndSwapObject(array, offset, expected, value);
+    /**
+     * Constructs an array which takes its banks from and returns them to the given pool.
+     * @param pool the bank pool, may be shared between arrays
+     */
+    public AtomicResizableArrayUnsafe(BankPool<Object[]> pool) {
+        super(pool);
     }
-    long calcOffset(int index) {
-        return P_ARRAY_OFFSET + (((long)index) << P_ARRAY_SHIFT);
+    @Override
+    final Object[] newArray(int length) {
+        return UnsafeElementAccess.INSTANCE.newArray(length);
     }
-    public void insert(int index, Object value) {
-        if (value == null) {
-            throw new NullPointerException("value != null required");
-        }
-        Object as = arrays;
-        Object array;
-        if (index < 16) {
-            long offset = calcOffset(0);
-            array = lvElement(as, offset);
-            if (array == null) {
-                array = new Object[16];
-                if (!casElement(as, offset, null, array)) {
-                    array = lvElement(as, offset);
-                }
-            }
-            long offset2 = calcOffset(index);
-            soElement(array, offset2, value);
-        } else {
-            int bankRaw = 32 - Integer.numberOfLeadingZeros(index);
-            int bankCorr = bankRaw - 4;
-            int offset = (index & ((1 << bankRaw) - 1) >> 1);
-            
-            long offs2 = calcOffset(bankCorr);
-            array = lvElement(as, offs2);
-            if (array == null) {
-                int bankSize = 1 << (bankRaw - 1);
-                try {
-                    array = new Object[bankSize];
-                    if (!casElement(as, offs2, null, array)) {
-                        array = lvElement(as, offs2);
-                    }
-                } catch (OutOfMemoryError ex) {
-                    int retries = 128;
-                    while ((array = lvElement(as, offs2)) == null && retries-- > 0);
-                    if (array == null) {
-                        throw ex;
-                    }
-                }
-            }            
-            long offset2 = calcOffset(offset);
-            soElement(array, offset2, value);
-        }
+    @Override
+    final int length(Object[] array) {
+        return UnsafeElementAccess.INSTANCE.length(array);
     }
-    /**
-     * Returns the value at the specified index and spins
-     * until the value becomes visible.
-     * @param index
-     * @return
-     */
-    public Object get(int index) {
-        Object as = arrays;
-        Object array;
-        if (index < 16) {
-            long offset = calcOffset(0);
-            array = lvElement(as, offset);
-            if (array != null) {
-                long offset2 = calcOffset(index);
-                return lvElement(array, offset2);
-            }
-        } else {
-            int bankRaw = 32 - Integer.numberOfLeadingZeros(index);
-            int bankCorr = bankRaw - 4;
-            int offset = (index & ((1 << bankRaw) - 1) >> 1);
-            
-            long offs2 = calcOffset(bankCorr);
-            array = lvElement(as, offs2);
-            if (array != null) {
-                long offset2 = calcOffset(offset);
-                return lvElement(array, offset2);
-            }
-        }
-        return null;
+    @Override
+    final Object lpElement(Object[] array, int index) {
+        return UnsafeElementAccess.INSTANCE.lpElement(array, index);
     }
-    /**
-     * Clears the counter to zero and the contents of the arrays to null.
-     * Should not run concurrently with any add.
-     */
-    public void lazyClear() {
-        Object[][] as = arrays;
-        for (int i = 0; i < as.length; i++) {
-            Object[] ara = as[i];
-            if (ara != null) {
-                int m = ara.length;
-                if (m < 64) {
-                    for (int j = 0; j < m; j++) {
-                        ara[j] = null;
-                    }
-                } else {
-                    for (int j = 0; j < m; j += 4) {
-                        if (ara[j] == null) {
-                            break;
-                        }
-                        ara[j] = null;
-                        ara[j + 1] = null;
-                        ara[j + 2] = null;
-                        ara[j + 3] = null;
-                    }
-                }
-            }
-        }
+    @Override
+    final Object lvElement(Object[] array, int index) {
+        return UnsafeElementAccess.INSTANCE.lvElement(array, index);
     }
-    /**
-     * Deallocates all arrays and resets the counter to zero.
-     * Should not run concurrently with any add.
-     */
-    public void lazyReset() {
-        Object[] as = arrays;
-        for (int i = 0; i < as.length; i++) {
-            as[i] = null;
-        }		
+    @Override
+    final void spElement(Object[] array, int index, Object value) {
+        UnsafeElementAccess.INSTANCE.spElement(array, index, value);
     }
-    public void lazyForEach(Action1<Object> action) {
-        Object[][] as = arrays;
-        for (int i = 0; i < as.length; i++) {
-            Object[] ara = as[i];
-            if (ara == null) {
-                return;
-            }
-            for (int j = 0; j < ara.length; j++) {
-                Object o = ara[j];
-                if (o == null) {
-                    return;
-                }
-                action.call(action);
-            }
-        }
+    @Override
+    final void soElement(Object[] array, int index, Object value) {
+        UnsafeElementAccess.INSTANCE.soElement(array, index, value);
     }
-    public boolean lazyConsumeWhile(Predicate<Object> action) {
-        Object[][] as = arrays;
-        long ao = calcOffset(0);
-        int diff = P_ARRAY_DIFF;
-        for (int i = 0; i < as.length; i++) {
-            Object[] ara = as[i];
-            if (ara == null) {
-                return true;
-            }
-            int j = 0;
-            long offset = ao;
-            int len = ara.length;
-            for (; j < len; j++, offset += diff) {
-                Object o = lpElement(ara, offset);
-                if (o == null) {
-                    break;
-                }
-                if (!action.test(o)) {
-                    return false;
-                }
-            }
-            offset = ao;
-            for (int k = 0; k < j; k++, offset += diff) {
-                spElement(ara, offset, null);
-            }
-        }
-        return true;
+    @Override
+    final boolean casElement(Object[] array, int index, Object expected, Object value) {
+        return UnsafeElementAccess.INSTANCE.casElement(array, index, expected, value);
     }
-    /**
-     * @return counts the elements in the array in a linear fashion.
-     */
-    public int size() {
-        int s = 0;
-        for (Object[] o : arrays) {
-            if (o != null) {
-                for (Object a : o) {
-                    if (a != null) {
-                        s++;
-                    } else {
-                        break;
-                    }
-                }
-            } else {
-                break;
-            }
-        }
-        return s;
+    public AtomicResizableArrayUnsafe(int initialCapacity) {
+        this();
+        // TODO
     }
 }
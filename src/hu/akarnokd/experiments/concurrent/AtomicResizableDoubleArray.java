@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.AtomicResizableArrayBase.*;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A lock-free append-only resizable array of double values stored as their raw long bits
+ * over AtomicLongArray banks.
+ */
+public final class AtomicResizableDoubleArray extends AtomicResizablePrimitiveArrayBase<AtomicLongArray, double[]> {
+    @Override
+    AtomicLongArray newValues(int size) {
+        return new AtomicLongArray(size);
+    }
+    @Override
+    void copy(double[] src, int off, AtomicLongArray values, int offset, int len) {
+        for (int j = 0; j < len; j++) {
+            values.lazySet(offset + j, Double.doubleToRawLongBits(src[off + j]));
+        }
+    }
+    public void add(double value) {
+        int index = count.getAndIncrement();
+        Bank<AtomicLongArray> b = bank(bankOf(index));
+        int offset = offsetOf(index);
+        b.values.lazySet(offset, Double.doubleToRawLongBits(value));
+        b.publish(offset);
+    }
+    /**
+     * Appends the given range of values at consecutive indexes reserved with a single
+     * counter update; each bank segment is written first and its slots published after.
+     * @param src the source array
+     * @param off the index of the first value in src
+     * @param len the number of values
+     */
+    public void addAll(double[] src, int off, int len) {
+        checkRange(src.length, off, len);
+        append(src, off, len);
+    }
+    /**
+     * Returns the value at the specified index.
+     * @param index the index
+     * @return the value
+     * @throws IndexOutOfBoundsException if the value is not yet visible
+     */
+    public double get(int index) {
+        Bank<AtomicLongArray> b = publishedBank(index);
+        if (b != null) {
+            return Double.longBitsToDouble(b.values.get(offsetOf(index)));
+        }
+        throw new IndexOutOfBoundsException();
+    }
+    /**
+     * Calls the action with the values in index order up to the first one not yet visible.
+     */
+    public void lazyForEach(DoubleConsumer action) {
+        forEachRun((values, from, to) -> {
+            for (int j = from; j < to; j++) {
+                action.accept(Double.longBitsToDouble(values.get(j)));
+            }
+        });
+    }
+}
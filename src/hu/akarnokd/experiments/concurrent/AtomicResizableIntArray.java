@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.AtomicResizableArrayBase.*;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A lock-free append-only resizable array of int values over AtomicIntegerArray banks.
+ */
+public final class AtomicResizableIntArray extends AtomicResizablePrimitiveArrayBase<AtomicIntegerArray, int[]> {
+    @Override
+    AtomicIntegerArray newValues(int size) {
+        return new AtomicIntegerArray(size);
+    }
+    @Override
+    void copy(int[] src, int off, AtomicIntegerArray values, int offset, int len) {
+        for (int j = 0; j < len; j++) {
+            values.lazySet(offset + j, src[off + j]);
+        }
+    }
+    public void add(int value) {
+        int index = count.getAndIncrement();
+        Bank<AtomicIntegerArray> b = bank(bankOf(index));
+        int offset = offsetOf(index);
+        b.values.lazySet(offset, value);
+        b.publish(offset);
+    }
+    /**
+     * Appends the given range of values at consecutive indexes reserved with a single
+     * counter update; each bank segment is written first and its slots published after.
+     * @param src the source array
+     * @param off the index of the first value in src
+     * @param len the number of values
+     */
+    public void addAll(int[] src, int off, int len) {
+        checkRange(src.length, off, len);
+        append(src, off, len);
+    }
+    /**
+     * Returns the value at the specified index.
+     * @param index the index
+     * @return the value
+     * @throws IndexOutOfBoundsException if the value is not yet visible
+     */
+    public int get(int index) {
+        Bank<AtomicIntegerArray> b = publishedBank(index);
+        if (b != null) {
+            return b.values.get(offsetOf(index));
+        }
+        throw new IndexOutOfBoundsException();
+    }
+    /**
+     * Calls the action with the values in index order up to the first one not yet visible.
+     */
+    public void lazyForEach(IntConsumer action) {
+        forEachRun((values, from, to) -> {
+            for (int j = from; j < to; j++) {
+                action.accept(values.get(j));
+            }
+        });
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.atomic.*;
+
+import static hu.akarnokd.experiments.concurrent.AtomicResizableArrayBase.*;
+
+/**
+ * The bank layout of {@link AtomicResizableArrayBase} for primitive values: each bank holds
+ * the values and a bitset of the published slots, so no sentinel value is needed to tell a
+ * slot not yet visible and the flags cost one bit per slot.
+ * <p>
+ * The writer stores the values with ordered stores and then sets their bits with a CAS on the
+ * word, the reader loads the word and then the value. Writers of neighbouring slots contend on
+ * the same word; a range append sets the bits of a word with a single CAS. Clearing resets the
+ * bits only.
+ * <p>
+ * The subclasses convert the values and copy the source arrays; the banking, reservation and
+ * traversal live here.
+ * @param <V> the atomic array type of the values
+ * @param <S> the source array type of the bulk append
+ */
+public abstract class AtomicResizablePrimitiveArrayBase<V, S> {
+    static final class Bank<V> {
+        final V values;
+        /** Bit {@code j & 63} of word {@code j >> 6} is set once slot {@code j} is visible. */
+        final AtomicLongArray published;
+        Bank(V values, int size) {
+            this.values = values;
+            this.published = new AtomicLongArray((size + 63) >> 6);
+        }
+        boolean isPublished(int offset) {
+            return (published.get(offset >> 6) & (1L << offset)) != 0L;
+        }
+        void publish(int offset) {
+            orWord(offset >> 6, 1L << offset);
+        }
+        /**
+         * Publishes the slots from {@code from} (inclusive) to {@code to} (exclusive).
+         */
+        void publish(int from, int to) {
+            while (from < to) {
+                int w = from >> 6;
+                int wordEnd = Math.min(to, (w + 1) << 6);
+                long bits = -1L >>> (64 - (wordEnd - from)) << from;
+                orWord(w, bits);
+                from = wordEnd;
+            }
+        }
+        void orWord(int w, long bits) {
+            AtomicLongArray p = published;
+            for (;;) {
+                long v = p.get(w);
+                if (p.compareAndSet(w, v, v | bits)) {
+                    return;
+                }
+            }
+        }
+    }
+    /**
+     * Receives a run of published slots of a bank.
+     */
+    interface RunConsumer<V> {
+        void accept(V values, int from, int to);
+    }
+    final AtomicReferenceArray<Bank<V>> banks;
+    final AtomicInteger count;
+    public AtomicResizablePrimitiveArrayBase() {
+        banks = new AtomicReferenceArray<>(27);
+        count = new AtomicInteger();
+    }
+    abstract V newValues(int size);
+    /**
+     * Stores {@code len} values of {@code src} from {@code off} into the slots starting
+     * with {@code offset}, with ordered stores.
+     */
+    abstract void copy(S src, int off, V values, int offset, int len);
+    /**
+     * Returns the given bank, allocating it if necessary.
+     */
+    final Bank<V> bank(int bank) {
+        AtomicReferenceArray<Bank<V>> as = banks;
+        Bank<V> array = as.get(bank);
+        if (array == null) {
+            try {
+                int size = bankSize(bank);
+                array = new Bank<>(newValues(size), size);
+                if (!as.compareAndSet(bank, null, array)) {
+                    array = as.get(bank);
+                }
+            } catch (OutOfMemoryError ex) {
+                int retries = 128;
+                while ((array = as.get(bank)) == null && retries-- > 0);
+                if (array == null) {
+                    throw ex;
+                }
+            }
+        }
+        return array;
+    }
+    /**
+     * Reserves {@code len} consecutive indexes and allocates the banks they touch.
+     * @return the first index reserved
+     */
+    final int reserve(int len) {
+        int index = count.getAndAdd(len);
+        int lastBank = bankOf(index + len - 1);
+        for (int b = bankOf(index); b <= lastBank; b++) {
+            bank(b);
+        }
+        return index;
+    }
+    static void checkRange(int length, int off, int len) {
+        if (off < 0 || len < 0 || off > length - len) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + length);
+        }
+    }
+    /**
+     * Appends {@code len} values of {@code src} from {@code off} at consecutive indexes
+     * reserved with a single counter update; each bank segment is written first and its
+     * bits published after.
+     */
+    final void append(S src, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        int i = reserve(len);
+        int end = i + len;
+        while (i < end) {
+            int bank = bankOf(i);
+            int base = bankStart(bank);
+            int bankEnd = Math.min(end, base + bankSize(bank));
+            Bank<V> b = banks.get(bank);
+            copy(src, off, b.values, i - base, bankEnd - i);
+            b.publish(i - base, bankEnd - base);
+            off += bankEnd - i;
+            i = bankEnd;
+        }
+    }
+    /**
+     * @return the bank of the index if its slot is published, null otherwise
+     */
+    final Bank<V> publishedBank(int index) {
+        Bank<V> b = banks.get(bankOf(index));
+        if (b != null && b.isPublished(offsetOf(index))) {
+            return b;
+        }
+        return null;
+    }
+    /**
+     * Hands the published slots to the action in index order, a run at a time, up to the
+     * first slot not yet visible.
+     */
+    final void forEachRun(RunConsumer<V> action) {
+        AtomicReferenceArray<Bank<V>> as = banks;
+        int n = as.length();
+        for (int i = 0; i < n; i++) {
+            Bank<V> b = as.get(i);
+            if (b == null) {
+                return;
+            }
+            AtomicLongArray p = b.published;
+            int m = bankSize(i);
+            for (int j = 0; j < m; j += 64) {
+                // the number of consecutive set bits from the lowest one
+                int k = Long.numberOfTrailingZeros(~p.get(j >> 6));
+                int end = Math.min(m, j + k);
+                if (end > j) {
+                    action.accept(b.values, j, end);
+                }
+                if (end < Math.min(m, j + 64)) {
+                    return;
+                }
+            }
+        }
+    }
+    /**
+     * @param index the index
+     * @return true if the value at the index is visible
+     */
+    public final boolean isPublished(int index) {
+        return publishedBank(index) != null;
+    }
+    public final int size() {
+        return count.get();
+    }
+    /**
+     * Clears the counter to zero and the published bits of the slots.
+     * Should not run concurrently with any add.
+     */
+    public final void lazyClear() {
+        AtomicReferenceArray<Bank<V>> as = banks;
+        int n = as.length();
+        for (int i = 0; i < n; i++) {
+            Bank<V> b = as.get(i);
+            if (b != null) {
+                AtomicLongArray p = b.published;
+                int m = p.length();
+                for (int j = 0; j < m; j++) {
+                    if (p.get(j) != 0L) {
+                        p.lazySet(j, 0L);
+                    }
+                }
+            }
+        }
+        count.lazySet(0);
+    }
+    /**
+     * Deallocates all banks and resets the counter to zero.
+     * Should not run concurrently with any add.
+     */
+    public final void lazyReset() {
+        AtomicReferenceArray<Bank<V>> as = banks;
+        int n = as.length();
+        for (int i = 0; i < n; i++) {
+            as.lazySet(i, null);
+        }
+        count.lazySet(0);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.AtomicResizableArrayBase.*;
+import static hu.akarnokd.experiments.concurrent.UnsafeAccess.UNSAFE;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.IntConsumer;
+
+/**
+ * A lock-free append-only resizable array of fixed-size records stored off-heap, in the bank
+ * layout of {@link AtomicResizableArrayBase}; the banks are allocated with
+ * {@code Unsafe.allocateMemory} so they don't add to the GC work.
+ * <p>
+ * Each slot starts with an 8 byte header holding the published flag followed by the record,
+ * padded to 8 bytes. A writer either copies a record in via {@link #add(byte[], int)} or
+ * {@link #reserve() reserves} an index, writes the record at {@link #recordAddress(int)} and
+ * {@link #publish(int) publishes} it with an ordered store of the flag. Readers check the flag
+ * with a volatile load before touching the record.
+ * <p>
+ * The memory is released by {@link #close()}, which should not run concurrently with any
+ * other method.
+ */
+public final class AtomicResizableRecordArrayUnsafe implements AutoCloseable {
+    static final int HEADER = 8;
+    static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+    final AtomicLongArray banks;
+    final AtomicInteger count;
+    final int recordSize;
+    final int stride;
+    /**
+     * @param recordSize the size of a record in bytes
+     */
+    public AtomicResizableRecordArrayUnsafe(int recordSize) {
+        if (recordSize <= 0) {
+            throw new IllegalArgumentException("recordSize > 0 required but it was " + recordSize);
+        }
+        this.recordSize = recordSize;
+        this.stride = (HEADER + recordSize + 7) & ~7;
+        this.banks = new AtomicLongArray(27);
+        this.count = new AtomicInteger();
+    }
+    /**
+     * Returns the address of the given bank, allocating and zeroing it if necessary.
+     */
+    long bank(int bank) {
+        AtomicLongArray as = banks;
+        long address = as.get(bank);
+        if (address == 0L) {
+            long bytes = (long)bankSize(bank) * stride;
+            long fresh = UNSAFE.allocateMemory(bytes);
+            UNSAFE.setMemory(fresh, bytes, (byte)0);
+            if (as.compareAndSet(bank, 0L, fresh)) {
+                address = fresh;
+            } else {
+                UNSAFE.freeMemory(fresh);
+                address = as.get(bank);
+            }
+        }
+        return address;
+    }
+    long slotAddress(long bankAddress, int index) {
+        return bankAddress + (long)offsetOf(index) * stride;
+    }
+    /**
+     * @return the slot address of the index if published, 0 otherwise
+     */
+    long publishedSlot(int index) {
+        long b = banks.get(bankOf(index));
+        if (b != 0L) {
+            long slot = slotAddress(b, index);
+            if (UNSAFE.getIntVolatile(null, slot) != 0) {
+                return slot;
+            }
+        }
+        return 0L;
+    }
+    /**
+     * Reserves the next index and allocates its bank; the record should be written
+     * at {@link #recordAddress(int)} and then {@link #publish(int) published}.
+     * @return the index reserved
+     */
+    public int reserve() {
+        int index = count.getAndIncrement();
+        bank(bankOf(index));
+        return index;
+    }
+    /**
+     * @param index a reserved index
+     * @return the address of the record of the index
+     */
+    public long recordAddress(int index) {
+        long b = banks.get(bankOf(index));
+        if (b == 0L) {
+            throw new IndexOutOfBoundsException("Not reserved: " + index);
+        }
+        return slotAddress(b, index) + HEADER;
+    }
+    /**
+     * Makes the record written at the reserved index visible to the readers.
+     * @param index the reserved index
+     */
+    public void publish(int index) {
+        UNSAFE.putOrderedInt(null, recordAddress(index) - HEADER, 1);
+    }
+    /**
+     * Appends a copy of {@code recordSize} bytes of src starting at off.
+     * @param src the source array
+     * @param off the offset of the record in src
+     * @return the index of the record
+     */
+    public int add(byte[] src, int off) {
+        if (off < 0 || off > src.length - recordSize) {
+            throw new IndexOutOfBoundsException("off: " + off + ", recordSize: " + recordSize + ", length: " + src.length);
+        }
+        int index = reserve();
+        long record = recordAddress(index);
+        UNSAFE.copyMemory(src, BYTE_ARRAY_OFFSET + off, null, record, recordSize);
+        UNSAFE.putOrderedInt(null, record - HEADER, 1);
+        return index;
+    }
+    /**
+     * @param index the index
+     * @return true if the record at the index is visible
+     */
+    public boolean isPublished(int index) {
+        return publishedSlot(index) != 0L;
+    }
+    /**
+     * Copies the record at the index into dst.
+     * @param index the index
+     * @param dst the destination array
+     * @param off the offset in dst
+     * @return false if the record is not yet visible
+     */
+    public boolean read(int index, byte[] dst, int off) {
+        if (off < 0 || off > dst.length - recordSize) {
+            throw new IndexOutOfBoundsException("off: " + off + ", recordSize: " + recordSize + ", length: " + dst.length);
+        }
+        long slot = publishedSlot(index);
+        if (slot == 0L) {
+            return false;
+        }
+        UNSAFE.copyMemory(null, slot + HEADER, dst, BYTE_ARRAY_OFFSET + off, recordSize);
+        return true;
+    }
+    /**
+     * @param index the index
+     * @param field the byte offset of the field within the record
+     * @return the long field of the published record
+     * @throws IndexOutOfBoundsException if the record is not yet visible
+     */
+    public long getLong(int index, int field) {
+        return UNSAFE.getLong(publishedRecord(index, field, 8) + field);
+    }
+    /**
+     * @param index the index
+     * @param field the byte offset of the field within the record
+     * @return the int field of the published record
+     * @throws IndexOutOfBoundsException if the record is not yet visible
+     */
+    public int getInt(int index, int field) {
+        return UNSAFE.getInt(publishedRecord(index, field, 4) + field);
+    }
+    long publishedRecord(int index, int field, int width) {
+        if (field < 0 || field > recordSize - width) {
+            throw new IndexOutOfBoundsException("field: " + field + ", recordSize: " + recordSize);
+        }
+        long slot = publishedSlot(index);
+        if (slot == 0L) {
+            throw new IndexOutOfBoundsException();
+        }
+        return slot + HEADER;
+    }
+    public int size() {
+        return count.get();
+    }
+    public int recordSize() {
+        return recordSize;
+    }
+    /**
+     * Calls the action with the indexes of the records in index order up to the first one
+     * not yet visible.
+     */
+    public void lazyForEach(IntConsumer action) {
+        AtomicLongArray as = banks;
+        int index = 0;
+        for (int i = 0; i < 27; i++) {
+            long b = as.get(i);
+            if (b == 0L) {
+                return;
+            }
+            int m = bankSize(i);
+            for (int j = 0; j < m; j++, index++) {
+                if (UNSAFE.getIntVolatile(null, b + (long)j * stride) == 0) {
+                    return;
+                }
+                action.accept(index);
+            }
+        }
+    }
+    /**
+     * Clears the counter to zero and the published flags below it, keeping the memory.
+     * Should not run concurrently with any add.
+     */
+    public void lazyClear() {
+        int end = count.get();
+        AtomicLongArray as = banks;
+        for (int i = 0; i < 27 && bankStart(i) < end; i++) {
+            long b = as.get(i);
+            if (b != 0L) {
+                int m = Math.min(bankSize(i), end - bankStart(i));
+                for (int j = 0; j < m; j++) {
+                    UNSAFE.putInt(b + (long)j * stride, 0);
+                }
+            }
+        }
+        count.lazySet(0);
+    }
+    /**
+     * Frees the memory of all banks and resets the counter to zero.
+     * Should not run concurrently with any other method.
+     */
+    @Override
+    public void close() {
+        AtomicLongArray as = banks;
+        for (int i = 0; i < 27; i++) {
+            long b = as.getAndSet(i, 0L);
+            if (b != 0L) {
+                UNSAFE.freeMemory(b);
+            }
+        }
+        count.set(0);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded pool of cleared banks for the resizable arrays, so fill-drain cycles reuse the
+ * banks instead of reallocating them after each {@code lazyReset}.
+ * <p>
+ * One pool can serve a single array or be shared by several arrays of the same backend.
+ * The banks are kept per bank index; the total number of pooled slots is capped.
+ * @param <A> the array type of the backend
+ */
+public final class BankPool<A> {
+    final AtomicReferenceArray<ConcurrentLinkedQueue<A>> banks;
+    final long maxSlots;
+    final AtomicLong slots;
+    /**
+     * @param maxSlots the maximum number of array slots held by the pool in total
+     */
+    public BankPool(long maxSlots) {
+        if (maxSlots < 0L) {
+            throw new IllegalArgumentException("maxSlots >= 0 required but it was " + maxSlots);
+        }
+        this.maxSlots = maxSlots;
+        this.banks = new AtomicReferenceArray<>(27);
+        this.slots = new AtomicLong();
+        for (int i = 0; i < 27; i++) {
+            banks.lazySet(i, new ConcurrentLinkedQueue<>());
+        }
+    }
+    /**
+     * @param bank the bank index
+     * @return a cleared bank for the given index or null if none is pooled
+     */
+    public A acquire(int bank) {
+        A a = banks.get(bank).poll();
+        if (a != null) {
+            slots.addAndGet(-AtomicResizableArrayBase.bankSize(bank));
+        }
+        return a;
+    }
+    /**
+     * Offers a bank back to the pool; the bank should contain only nulls.
+     * @param bank the bank index
+     * @param array the bank
+     * @return false if the pool is at its limit and the bank was not kept
+     */
+    public boolean release(int bank, A array) {
+        int size = AtomicResizableArrayBase.bankSize(bank);
+        AtomicLong s = slots;
+        for (;;) {
+            long v = s.get();
+            if (v + size > maxSlots) {
+                return false;
+            }
+            if (s.compareAndSet(v, v + size)) {
+                banks.get(bank).offer(array);
+                return true;
+            }
+        }
+    }
+    /**
+     * @return the number of array slots held by the pool
+     */
+    public long pooledSlots() {
+        return slots.get();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins for a number of rounds then parks the waiter until the queue signals a
+ * state change.
+ * <p>
+ * Waiting alternates between two rounds: the first registers the waiter and
+ * returns so the caller re-checks its condition, the second parks. The signal
+ * unparks and unregisters every registered waiter, which then re-register
+ * if their condition still doesn't hold. A waiter which wakes up without being
+ * signalled (timeout, spurious wakeup) stays registered and parks again.
+ * <p>
+ * Waiters unregister themselves in {@link #done(int)} so that the signal doesn't
+ * unpark threads which no longer wait, and the signal costs a single volatile
+ * read while nobody is registered.
+ * <p>
+ * The strategy doesn't know which slot or side a waiter waits for, so the signal
+ * wakes all of them: with many blocked takers, each put wakes every one, the
+ * losers re-register and park again. Waking only one could pick a waiter whose
+ * condition still doesn't hold and leave the one whose condition does parked
+ * indefinitely. The spin rounds before registering absorb most of this under
+ * steady traffic; ExecutorQueuePerf measures it with many idle workers.
+ */
+public final class BlockingWaitStrategy implements WaitStrategy {
+    final int spins;
+    final PaddedAtomicReference<Waiter> waiters;
+    /** The last waiter node registered by the current thread. */
+    final ThreadLocal<Waiter> current;
+    public BlockingWaitStrategy() {
+        this(100);
+    }
+    /**
+     * @param spins the number of rounds to spin before parking
+     */
+    public BlockingWaitStrategy(int spins) {
+        this.spins = spins;
+        this.waiters = new PaddedAtomicReference<>();
+        this.current = new ThreadLocal<>();
+    }
+    @Override
+    public int idle(int round) {
+        if (round < spins) {
+            return round + 1;
+        }
+        if (round == spins) {
+            register();
+            return round + 1;
+        }
+        LockSupport.park(this);
+        return parked();
+    }
+    @Override
+    public int idle(int round, long nanos) {
+        if (round < spins) {
+            return round + 1;
+        }
+        if (round == spins) {
+            register();
+            return round + 1;
+        }
+        LockSupport.parkNanos(this, nanos);
+        return parked();
+    }
+    /**
+     * @return the next round: park again if the current thread is still
+     * registered, register again if it was signalled
+     */
+    int parked() {
+        Waiter w = current.get();
+        return w != null && w.thread != null ? spins + 1 : spins;
+    }
+    void register() {
+        PaddedAtomicReference<Waiter> ws = waiters;
+        Waiter w = new Waiter(Thread.currentThread());
+        current.set(w);
+        for (;;) {
+            Waiter h = ws.get();
+            w.next = h;
+            if (ws.compareAndSet(h, w)) {
+                return;
+            }
+        }
+    }
+    @Override
+    public void done(int round) {
+        if (round < spins) {
+            return;
+        }
+        Waiter w = current.get();
+        if (w == null || w.thread == null) {
+            return;
+        }
+        w.thread = null;
+        // pop the unregistered waiters off the top so the signal can skip the list
+        PaddedAtomicReference<Waiter> ws = waiters;
+        for (;;) {
+            Waiter h = ws.get();
+            if (h == null || h.thread != null) {
+                return;
+            }
+            ws.compareAndSet(h, h.next);
+        }
+    }
+    @Override
+    public void signal() {
+        // the preceding slot change ended with a volatile write, which orders it
+        // before this volatile read the same way register()'s CAS orders the waiter's re-check
+        PaddedAtomicReference<Waiter> ws = waiters;
+        if (ws.get() != null) {
+            Waiter w = ws.getAndSet(null);
+            while (w != null) {
+                Thread t = w.thread;
+                if (t != null) {
+                    w.thread = null;
+                    LockSupport.unpark(t);
+                }
+                w = w.next;
+            }
+        }
+    }
+    static final class Waiter {
+        volatile Thread thread;
+        Waiter next;
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
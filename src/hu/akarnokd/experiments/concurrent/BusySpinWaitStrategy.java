@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * Keeps re-checking the condition without any back-off; lowest latency at the
+ * cost of a fully busy core per waiter.
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+    /** The singleton instance. */
+    public static final BusySpinWaitStrategy INSTANCE = new BusySpinWaitStrategy();
+    private BusySpinWaitStrategy() { }
+    @Override
+    public int idle(int round) {
+        return round;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.lang.reflect.*;
+import java.util.Queue;
+
+import hu.akarnokd.experiments.concurrent.multiqueue.*;
+
+/**
+ * Selects the memory-access backend of the array queues and resizable arrays at runtime.
+ * Every backend provides every structure.
+ * <p>
+ * The VarHandle classes live in the {@code src9} source folder and need Java 9+;
+ * they are looked up reflectively so this class still loads on Java 8.
+ * The {@code hu.akarnokd.experiments.concurrent.backend} system property
+ * overrides the choice of {@link #best()}.
+ */
+public enum ConcurrentBackend {
+    /** java.util.concurrent.atomic arrays and field updaters. */
+    ATOMIC(AtomicArrayQueue.class.getName(), SpscArrayQueue2Atomic.class.getName(),
+            AtomicResizableArray.class.getName()),
+    /** sun.misc.Unsafe. */
+    UNSAFE(AtomicArrayQueueUnsafe.class.getName(), SpscArrayQueue2.class.getName(),
+            AtomicResizableArrayUnsafe.class.getName()),
+    /** java.lang.invoke.VarHandle, Java 9+. */
+    VARHANDLE("hu.akarnokd.experiments.concurrent.AtomicArrayQueueVarHandle", 
+            "hu.akarnokd.experiments.concurrent.multiqueue.SpscArrayQueue2VarHandle",
+            "hu.akarnokd.experiments.concurrent.AtomicResizableArrayVarHandle");
+    
+    final String arrayQueueClass;
+    final String spscArrayQueue2Class;
+    final String resizableArrayClass;
+    
+    private ConcurrentBackend(String arrayQueueClass, String spscArrayQueue2Class, String resizableArrayClass) {
+        this.arrayQueueClass = arrayQueueClass;
+        this.spscArrayQueue2Class = spscArrayQueue2Class;
+        this.resizableArrayClass = resizableArrayClass;
+    }
+    /**
+     * @return true if the backend classes can be loaded on the current runtime
+     */
+    public boolean isAvailable() {
+        try {
+            Class.forName(arrayQueueClass);
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+    /**
+     * Returns the backend named by the {@code hu.akarnokd.experiments.concurrent.backend}
+     * system property or, if not set, VARHANDLE when available and UNSAFE otherwise.
+     * @return the backend to use
+     */
+    public static ConcurrentBackend best() {
+        String name = System.getProperty("hu.akarnokd.experiments.concurrent.backend");
+        if (name != null) {
+            try {
+                ConcurrentBackend b = valueOf(name.trim().toUpperCase());
+                if (b.isAvailable()) {
+                    return b;
+                }
+                System.err.println("Backend '" + name + "' is not available on this runtime");
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Failed to set 'hu.akarnokd.experiments.concurrent.backend' with value " + name + " => " + ex.getMessage());
+            }
+        }
+        return VARHANDLE.isAvailable() ? VARHANDLE : UNSAFE;
+    }
+    /**
+     * Creates a resizable single-producer single-consumer array queue.
+     * @param initialCapacity the initial capacity
+     * @param maxCapacity the maximum capacity
+     * @return the new queue
+     */
+    @SuppressWarnings("unchecked")
+    public Queue<Object> newArrayQueue(int initialCapacity, int maxCapacity) {
+        return (Queue<Object>)create(arrayQueueClass, initialCapacity, maxCapacity);
+    }
+    /**
+     * Creates a single-producer single-consumer queue of pairs.
+     * @param capacity the capacity, rounded up to power of 2
+     * @return the new queue
+     */
+    @SuppressWarnings("unchecked")
+    public <T1, T2> Queue2<T1, T2> newSpscArrayQueue2(int capacity) {
+        return (Queue2<T1, T2>)create(spscArrayQueue2Class, capacity);
+    }
+    /**
+     * Creates an empty resizable array.
+     * @return the new array
+     */
+    public AtomicResizableArrayBase<?> newResizableArray() {
+        return (AtomicResizableArrayBase<?>)create(resizableArrayClass);
+    }
+    static Object create(String className, int... args) {
+        try {
+            Class<?>[] types = new Class<?>[args.length];
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                types[i] = int.class;
+                values[i] = args[i];
+            }
+            Constructor<?> c = Class.forName(className).getConstructor(types);
+            return c.newInstance(values);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            throw new IllegalStateException("Backend class " + className + " is not available", ex);
+        }
+    }
+}
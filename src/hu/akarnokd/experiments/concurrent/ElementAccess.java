@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * Element access of the arrays backing the queues and resizable arrays, so their
+ * algorithm is written once and runs over any of the AtomicReferenceArray, Unsafe
+ * or VarHandle backends.
+ * <p>
+ * The implementations are stateless singletons. The backend subclasses call them through
+ * the {@code INSTANCE} constant from final methods rather than through a shared field, so
+ * the JIT sees the exact type at that call and inlines it into the accessor.
+ * @param <A> the array type
+ */
+public abstract class ElementAccess<A> {
+    /**
+     * @param length the number of elements
+     * @return a new array of null elements
+     */
+    public abstract A newArray(int length);
+    /**
+     * @param array the array
+     * @return the number of elements of the array
+     */
+    public abstract int length(A array);
+    /** Plain load. */
+    public abstract Object lpElement(A array, int index);
+    /** Volatile (acquire) load. */
+    public abstract Object lvElement(A array, int index);
+    /** Plain store. */
+    public abstract void spElement(A array, int index, Object value);
+    /** Ordered (release) store. */
+    public abstract void soElement(A array, int index, Object value);
+    /** Atomic compare and set. */
+    public abstract boolean casElement(A array, int index, Object expected, Object value);
+}
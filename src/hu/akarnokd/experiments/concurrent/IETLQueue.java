@@ -16,27 +16,48 @@
 
 package hu.akarnokd.experiments.concurrent;
 
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
 
 /**
- * An ingress/egress ticketed queue.
+ * A bounded MPMC ingress/egress ticketed queue.
+ * <p>
+ * A slot's ingress turn tells which ticket may use it next, its egress turn
+ * tells which ticket's value has been published into it. Hence a consumer can
+ * tell an empty slot apart from one with an offer in progress.
+ * <p>
+ * Does not support null values.
+ * <p>
+ * Contention is counted into the {@link QueueTelemetry} given at construction,
+ * if any.
  */
 public class IETLQueue<E> {
     private final int mask;
+    private final int length;
     private final PaddedAtomicLong offerCursor;
     private final PaddedAtomicLong pollCursor;
     private final AtomicReferenceArray<E> values;
     private final AtomicLongArray ingress;
     private final AtomicLongArray egress;
+    private final WaitStrategy waitStrategy;
+    private final QueueTelemetry telemetry;
     public IETLQueue(int capacity) {
+        this(capacity, BusySpinWaitStrategy.INSTANCE);
+    }
+    public IETLQueue(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, null);
+    }
+    public IETLQueue(int capacity, WaitStrategy waitStrategy, QueueTelemetry telemetry) {
         capacity = Pow2.pow2(capacity);
         this.mask = capacity - 1;
+        this.length = capacity;
         this.offerCursor = new PaddedAtomicLong();
         this.pollCursor = new PaddedAtomicLong();
         this.values = new AtomicReferenceArray<>(capacity);
         this.ingress = new AtomicLongArray(capacity);
         this.egress = new AtomicLongArray(capacity);
+        this.waitStrategy = waitStrategy;
+        this.telemetry = telemetry;
         for  (int i = 0; i < capacity - 1; i++) {
             ingress.lazySet(i, i);
             egress.lazySet(i, i - capacity);
@@ -44,13 +65,25 @@ public class IETLQueue<E> {
         egress.lazySet(capacity - 1, -1);
         ingress.set(capacity - 1, capacity - 1);
     }
-
+    /**
+     * @return the telemetry counters or null if not instrumented
+     */
+    public QueueTelemetry telemetry() {
+        return telemetry;
+    }
     public boolean offer(E value) {
+        return offer(value, true);
+    }
+    private boolean offer(E value, boolean countReject) {
+        if (value == null) {
+            throw new NullPointerException("Null values not allowed here!");
+        }
         int m = mask;
         PaddedAtomicLong oc = offerCursor;
         AtomicLongArray in = ingress;
         AtomicLongArray eg = egress;
         AtomicReferenceArray<E> vs = values;
+        QueueTelemetry t = telemetry;
         for (;;) {
             long ticket = oc.get();
             int slot = (int)ticket & m;
@@ -58,54 +91,242 @@ public class IETLQueue<E> {
                 if ((oc.get() ^ ticket) != 0) { // slot taken and consumed 
                     continue;
                 }
+                if (t != null && countReject) {
+                    t.fullRejections.increment();
+                }
                 return false;
             }
             if (oc.compareAndSet(ticket, ticket + 1)) {
                 vs.lazySet(slot, value);
                 eg.set(slot, ticket);
+                waitStrategy.signal();
                 return true;
             }
+            if (t != null) {
+                t.offerCasFailures.increment();
+            }
         }
     }
     public E poll() {
+        return poll(true);
+    }
+    private E poll(boolean countReject) {
         int m = mask;
         PaddedAtomicLong pc = pollCursor;
         AtomicLongArray in = ingress;
         AtomicLongArray eg = egress;
         AtomicReferenceArray<E> vs = values;
-        ThreadLocalRandom tlr = ThreadLocalRandom.current();
-        int retry = tlr.nextInt(128);
+        QueueTelemetry t = telemetry;
         for (;;) {
             long ticket = pc.get();
             int slot = (int)ticket & m;
             if (in.get(slot) != ticket) {
                 if (pc.get() != ticket) { // somebody else took this slot
+                    if (t != null) {
+                        t.pollRetries.increment();
+                    }
                     continue;
                 }
+                if (t != null && countReject) {
+                    t.emptyRejections.increment();
+                }
                 return null;
             }
-            if (eg.get(slot) != ticket) { // offer is not finished yet
-                if (retry-- <= 0) {
-                    if (offerCursor.get() > ticket) {
-                        retry = tlr.nextInt(128);
-                        continue;
+            if (eg.get(slot) != ticket) {
+                if (offerCursor.get() > ticket) { // offer is not finished yet
+                    if (t != null) {
+                        t.pollRetries.increment();
                     }
-                    return null; // not expecting it
+                    continue;
+                }
+                if (t != null && countReject) {
+                    t.emptyRejections.increment();
                 }
-                continue;
+                return null;
             }
             E v = vs.get(slot);
             if (v == null) {
                 if (((pc.get() ^ ticket) | (in.get(slot) ^ ticket)) != 0) { // somebody else took this slot
+                    if (t != null) {
+                        t.pollRetries.increment();
+                    }
                     continue;
                 }
+                if (t != null && countReject) {
+                    t.emptyRejections.increment();
+                }
                 return null;
             }
             if (pc.compareAndSet(ticket, ticket + 1)) {
                 vs.lazySet(slot, null);
                 in.set(slot, ticket + m + 1);
+                waitStrategy.signal();
                 return v;
             }
+            if (t != null) {
+                t.pollCasFailures.increment();
+            }
         }
     }
+    /**
+     * Returns the next value without removing it.
+     * @return the next value or null if the queue is empty
+     */
+    public E peek() {
+        int m = mask;
+        PaddedAtomicLong pc = pollCursor;
+        AtomicLongArray in = ingress;
+        AtomicLongArray eg = egress;
+        AtomicReferenceArray<E> vs = values;
+        for (;;) {
+            long ticket = pc.get();
+            int slot = (int)ticket & m;
+            if (in.get(slot) != ticket) {
+                if (pc.get() != ticket) {
+                    continue;
+                }
+                return null;
+            }
+            if (eg.get(slot) != ticket) {
+                if (offerCursor.get() > ticket) {
+                    continue;
+                }
+                return null;
+            }
+            E v = vs.get(slot);
+            if (v != null && pc.get() == ticket) {
+                return v;
+            }
+        }
+    }
+    /**
+     * Offers the value, waiting for free space according to the wait strategy.
+     * @param value the value to offer
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void put(E value) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            while (!offer(value, false)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+                if (t != null) {
+                    t.putSpins.increment();
+                }
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    /**
+     * Polls a value, waiting for one according to the wait strategy.
+     * @return the value polled
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public E take() throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            for (;;) {
+                E v = poll(false);
+                if (v != null) {
+                    return v;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+                if (t != null) {
+                    t.takeSpins.increment();
+                }
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    /**
+     * Polls a run of published values, reserving their tickets with a single
+     * cursor update, and hands them to the consumer in order.
+     * <p>
+     * Each slot is released before its value is handed over. If the consumer
+     * throws, the rest of the reserved slots are released and their values
+     * are lost.
+     * @param consumer the consumer of the values
+     * @param limit the maximum number of values to poll
+     * @return the number of values polled, zero if no value was published
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        int m = mask;
+        int max = Math.min(limit, length);
+        PaddedAtomicLong pc = pollCursor;
+        AtomicLongArray in = ingress;
+        AtomicLongArray eg = egress;
+        AtomicReferenceArray<E> vs = values;
+        for (;;) {
+            long ticket = pc.get();
+            int n = 0;
+            while (n < max) {
+                int slot = (int)(ticket + n) & m;
+                if (in.get(slot) != ticket + n || eg.get(slot) != ticket + n) {
+                    break;
+                }
+                n++;
+            }
+            if (n == 0) {
+                if (pc.get() != ticket) {
+                    continue;
+                }
+                QueueTelemetry t = telemetry;
+                if (t != null) {
+                    t.emptyRejections.increment();
+                }
+                return 0;
+            }
+            if (pc.compareAndSet(ticket, ticket + n)) {
+                int i = 0;
+                try {
+                    for (; i < n; i++) {
+                        int slot = (int)(ticket + i) & m;
+                        E v = vs.get(slot);
+                        vs.lazySet(slot, null);
+                        in.set(slot, ticket + i + length);
+                        consumer.accept(v);
+                    }
+                } finally {
+                    // releases the slots after i if the consumer threw at slot i
+                    for (i++; i < n; i++) {
+                        int slot = (int)(ticket + i) & m;
+                        vs.lazySet(slot, null);
+                        in.set(slot, ticket + i + length);
+                    }
+                    waitStrategy.signal();
+                }
+                return n;
+            }
+            QueueTelemetry t = telemetry;
+            if (t != null) {
+                t.pollCasFailures.increment();
+            }
+        }
+    }
+    public int size() {
+        long after = pollCursor.get();
+        for (;;) {
+            long before = after;
+            long oc = offerCursor.get();
+            after = pollCursor.get();
+            if (before == after) {
+                long s = oc - after;
+                return s <= 0L ? 0 : (s >= length ? length : (int)s);
+            }
+        }
+    }
+    public boolean isEmpty() {
+        return size() == 0;
+    }
 }
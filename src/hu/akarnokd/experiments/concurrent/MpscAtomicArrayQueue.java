@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A multi-producer, single-consumer variant of {@link AtomicArrayQueue} which
+ * starts with a small buffer and moves to the large buffer once under high
+ * traffic or when the small buffer gets full.
+ * <p>
+ * Producers claim their index with a CAS on the writer index after checking
+ * the capacity against the reader index. The producer which wins the buffer
+ * CAS publishes the large buffer, reads the writer index and tombstones the
+ * small buffer's window up to it, copying the values still present. Producers
+ * whose write into the small buffer fails on a tombstone write into the large
+ * buffer instead; producers claiming an index after the window see the large
+ * buffer right away. The consumer moves over when it finds a tombstone.
+ * <p>
+ * While the migration is in progress, poll may return null even though the
+ * queue is not empty.
+ * <p>
+ * The iterator is weakly consistent and doesn't support removal.
+ */
+public class MpscAtomicArrayQueue extends AbstractQueue<Object> {
+    static final Object TOMBSTONE = AtomicArrayQueue.TOMBSTONE;
+    final int smallMask;
+    final int largeMask;
+    final PaddedAtomicReference<AtomicReferenceArray<Object>> buffer;
+    final PaddedAtomicLong writerIndex;
+    final PaddedAtomicLong readerIndex;
+    public MpscAtomicArrayQueue(int initial, int maxCapacity) {
+        int ms = Pow2.pow2(maxCapacity);
+        int is = Math.min(Pow2.pow2(initial), ms);
+
+        this.smallMask = is - 1;
+        this.largeMask = ms - 1;
+
+        this.buffer = new PaddedAtomicReference<>();
+        this.writerIndex = new PaddedAtomicLong();
+        this.readerIndex = new PaddedAtomicLong();
+        buffer.lazySet(new AtomicReferenceArray<>(is));
+    }
+
+    long lpReaderIndex() {
+        return readerIndex.get();
+    }
+    long lvReaderIndex() {
+        return readerIndex.get();
+    }
+    void soReaderIndex(long value) {
+        readerIndex.lazySet(value);
+    }
+
+    long lvWriterIndex() {
+        return writerIndex.get();
+    }
+    boolean casWriterIndex(long expected, long value) {
+        return writerIndex.compareAndSet(expected, value);
+    }
+
+    AtomicReferenceArray<Object> lvBuffer() {
+        return buffer.get();
+    }
+    boolean casBuffer(AtomicReferenceArray<Object> expected, AtomicReferenceArray<Object> b) {
+        return buffer.compareAndSet(expected, b);
+    }
+
+    Object lvElement(AtomicReferenceArray<Object> b, int offset) {
+        return b.get(offset);
+    }
+    void soElement(AtomicReferenceArray<Object> b, int offset, Object value) {
+        b.lazySet(offset, value);
+    }
+    boolean casElement(AtomicReferenceArray<Object> b, int offset, Object expected, Object value) {
+        return b.compareAndSet(offset, expected, value);
+    }
+
+    int offsetSmall(long index, int mask) {
+        return ((int) index & mask);
+    }
+
+    int offsetLarge(long index, int mask) {
+        return ((int) index & mask);
+    }
+
+    void grow(AtomicReferenceArray<Object> b, int smallMask, int largeMask) {
+        if (lvBuffer() != b) {
+            return;
+        }
+        AtomicReferenceArray<Object> b2 = new AtomicReferenceArray<>(largeMask + 1);
+        if (!casBuffer(b, b2)) {
+            return;
+        }
+        // indexes claimed from now on see b2 after their claim
+        long wi = lvWriterIndex();
+        for (long j = wi - smallMask - 1; j < wi; j++) {
+            int so = offsetSmall(j, smallMask);
+            for (;;) {
+                Object o = lvElement(b, so);
+                if (casElement(b, so, o, TOMBSTONE)) {
+                    if (o != null) {
+                        soElement(b2, offsetLarge(j, largeMask), o);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(Object o) {
+        if (o == null) {
+            throw new NullPointerException("Null values not allowed here!");
+        }
+        int sm = smallMask;
+        int lm = largeMask;
+        long wi;
+        for (;;) {
+            AtomicReferenceArray<Object> b = lvBuffer();
+            wi = lvWriterIndex();
+            long ri = lvReaderIndex();
+            if (b.length() > lm) {
+                if (wi - ri > lm) {
+                    return false;
+                }
+            } else
+            if (wi - ri > sm || wi >= AtomicArrayQueue.HIGH_TRAFFIC_QUEUE_THRESHOLD) {
+                grow(b, sm, lm);
+                continue;
+            }
+            if (casWriterIndex(wi, wi + 1)) {
+                break;
+            }
+        }
+        AtomicReferenceArray<Object> b = lvBuffer();
+        if (b.length() <= lm) {
+            if (casElement(b, offsetSmall(wi, sm), null, o)) {
+                return true;
+            }
+            // tombstoned, the large buffer is already visible
+            b = lvBuffer();
+        }
+        soElement(b, offsetLarge(wi, lm), o);
+        return true;
+    }
+    @Override
+    public Object poll() {
+        int lm = largeMask;
+        long ri = lpReaderIndex();
+        AtomicReferenceArray<Object> b = lvBuffer();
+        if (b.length() <= lm) {
+            int ro = offsetSmall(ri, smallMask);
+            for (;;) {
+                Object o = lvElement(b, ro);
+                if (o == null) {
+                    return null;
+                }
+                if (o == TOMBSTONE) {
+                    b = lvBuffer();
+                    break;
+                }
+                if (casElement(b, ro, o, null)) {
+                    soReaderIndex(ri + 1);
+                    return o;
+                }
+            }
+        }
+        int ro = offsetLarge(ri, lm);
+        Object o = lvElement(b, ro);
+        if (o == null) {
+            return null;
+        }
+        soElement(b, ro, null);
+        soReaderIndex(ri + 1);
+        return o;
+    }
+    @Override
+    public Object peek() {
+        int lm = largeMask;
+        long ri = lpReaderIndex();
+        AtomicReferenceArray<Object> b = lvBuffer();
+        if (b.length() <= lm) {
+            Object o = lvElement(b, offsetSmall(ri, smallMask));
+            if (o != TOMBSTONE) {
+                return o;
+            }
+            b = lvBuffer();
+        }
+        return lvElement(b, offsetLarge(ri, lm));
+    }
+    /**
+     * Returns a weakly consistent iterator over the elements between the reader and
+     * writer indexes at the time of the call, skipping the ones consumed or not yet
+     * written while iterating. Doesn't support removal.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new Itr();
+    }
+    final class Itr implements Iterator<Object> {
+        final long end;
+        long index;
+        Object next;
+        Itr() {
+            this.index = lvReaderIndex();
+            this.end = lvWriterIndex();
+            advance();
+        }
+        void advance() {
+            int lm = largeMask;
+            while (index < end) {
+                long ri = lvReaderIndex();
+                if (index < ri) {
+                    index = ri;
+                    continue;
+                }
+                AtomicReferenceArray<Object> b = lvBuffer();
+                Object o;
+                if (b.length() <= lm) {
+                    o = lvElement(b, offsetSmall(index, smallMask));
+                    if (o == TOMBSTONE) {
+                        // the value, if any, has been copied into the large buffer
+                        o = lvElement(lvBuffer(), offsetLarge(index, lm));
+                    }
+                } else {
+                    o = lvElement(b, offsetLarge(index, lm));
+                }
+                index++;
+                if (o != null) {
+                    next = o;
+                    return;
+                }
+            }
+            next = null;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public Object next() {
+            Object o = next;
+            if (o == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return o;
+        }
+    }
+    /**
+     * Returns the number of claimed indexes not yet consumed, including
+     * the ones whose value is still being written.
+     */
+    @Override
+    public int size() {
+        long ri = lvReaderIndex();
+        for (;;) {
+            long wi = lvWriterIndex();
+            long ri2 = lvReaderIndex();
+            if (ri == ri2) {
+                long s = wi - ri;
+                return s <= 0L ? 0 : (int)Math.min(s, largeMask + 1);
+            }
+            ri = ri2;
+        }
+    }
+    @Override
+    public boolean isEmpty() {
+        return lvWriterIndex() == lvReaderIndex();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.UnsafeAccess.*;
+import hu.akarnokd.experiments.concurrent.multiqueue.ArrayQueueBase;
+
+/**
+ * A bounded MPMC queue with the turn protocol of {@link PTLQueue} but with
+ * the turn and value of a slot kept together in a per-slot cell, so an
+ * offer or poll touches a single cache line of mutable state instead of one
+ * in the turns and one in the values array.
+ * <p>
+ * A heap array can't hold both longs and references, therefore the slab is an
+ * array of cells allocated together at construction; the array itself is
+ * never written afterwards, so its cache lines stay shared between the cores.
+ * The optionally padded cells don't false-share with their neighbors.
+ * <p>
+ * Does not support null values.
+ */
+public final class PTLCellQueue<E> extends ArrayQueueBase {
+    static final long TURN = addressOf(Cell.class, "turn");
+    static final long VALUE = addressOf(Cell.class, "value");
+    private final int length;
+    private final PaddedAtomicLong offerCursor;
+    private final PaddedAtomicLong pollCursor;
+    public PTLCellQueue(int capacity) {
+        this(capacity, false);
+    }
+    /**
+     * @param capacity the capacity, rounded up to a power of 2
+     * @param padded pad each cell to avoid false sharing between adjacent slots
+     */
+    public PTLCellQueue(int capacity, boolean padded) {
+        super(capacity);
+        length = mask + 1;
+        offerCursor = new PaddedAtomicLong();
+        pollCursor = new PaddedAtomicLong();
+        for (int i = 0; i < length; i++) {
+            Cell c = padded ? new PaddedCell() : new Cell();
+            c.turn = i;
+            spElement(calcOffset(i), c);
+        }
+    }
+    Cell cell(long ticket) {
+        return lpElement(calcWrappedOffset(ticket, mask));
+    }
+    static long lvTurn(Cell c) {
+        return UNSAFE.getLongVolatile(c, TURN);
+    }
+    static void svTurn(Cell c, long turn) {
+        UNSAFE.putLongVolatile(c, TURN, turn);
+    }
+    static Object lvValue(Cell c) {
+        return UNSAFE.getObjectVolatile(c, VALUE);
+    }
+    static void soValue(Cell c, Object value) {
+        UNSAFE.putOrderedObject(c, VALUE, value);
+    }
+    static void svValue(Cell c, Object value) {
+        UNSAFE.putObjectVolatile(c, VALUE, value);
+    }
+    public void put(E value, Runnable ifWait) {
+        nullCheck(value);
+        long ticket = offerCursor.getAndIncrement();
+        Cell c = cell(ticket);
+        while (lvTurn(c) != ticket) {
+            ifWait.run();
+        }
+        svValue(c, value);
+    }
+    public boolean offer(E value) {
+        nullCheck(value);
+        PaddedAtomicLong oc = offerCursor;
+        for (;;) {
+            long ticket = oc.get();
+            Cell c = cell(ticket);
+            if (lvTurn(c) != ticket) {
+                return false;
+            }
+            if (oc.compareAndSet(ticket, ticket + 1)) {
+                svValue(c, value);
+                return true;
+            }
+        }
+    }
+    private void nullCheck(E value) {
+        if (value == null) {
+            throw new NullPointerException("Null values not allowed here!");
+        }
+    }
+    @SuppressWarnings("unchecked")
+    public E take(Runnable ifWait) {
+        long ticket = pollCursor.getAndIncrement();
+        Cell c = cell(ticket);
+        while (lvTurn(c) != ticket) {
+            ifWait.run();
+        }
+        for (;;) {
+            Object v = lvValue(c);
+            if (v != null) {
+                soValue(c, null);
+                svTurn(c, ticket + length);
+                return (E)v;
+            }
+            ifWait.run();
+        }
+    }
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        PaddedAtomicLong pc = pollCursor;
+        for (;;) {
+            long ticket = pc.get();
+            Cell c = cell(ticket);
+            if (lvTurn(c) != ticket) {
+                return null;
+            }
+            Object v = lvValue(c);
+            if (v == null) {
+                return null;
+            }
+            if (pc.compareAndSet(ticket, ticket + 1)) {
+                soValue(c, null);
+                svTurn(c, ticket + length);
+                return (E)v;
+            }
+        }
+    }
+    @SuppressWarnings("unchecked")
+    public E pollStrong() {
+        PaddedAtomicLong pc = pollCursor;
+        for (;;) {
+            long ticket = pc.get();
+            Cell c = cell(ticket);
+            if (lvTurn(c) != ticket) {
+                if (pc.get() != ticket) {
+                    continue;
+                }
+                return null;
+            }
+            Object v = lvValue(c);
+            if (v == null) {
+                if (((pc.get() ^ ticket) | (lvTurn(c) ^ ticket)) != 0) {
+                    continue;
+                }
+                return null;
+            }
+            if (pc.compareAndSet(ticket, ticket + 1)) {
+                soValue(c, null);
+                svTurn(c, ticket + length);
+                return (E)v;
+            }
+        }
+    }
+    public int size() {
+        long after = pollCursor.get();
+        for (;;) {
+            long before = after;
+            long oc = offerCursor.get();
+            after = pollCursor.get();
+            if (before == after) {
+                long s = oc - after;
+                return s <= 0L ? 0 : (s >= length ? length : (int)s);
+            }
+        }
+    }
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    /** A slot of the queue; accessed through Unsafe. */
+    static class Cell {
+        volatile long turn;
+        volatile Object value;
+    }
+    /** A slot padded at the end; cells are allocated in order, so this separates neighbors. */
+    static final class PaddedCell extends Cell {
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+        long p8, p9, p10, p11, p12, p13, p14;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A bounded MPMC queue of primitive ints based on the same per-slot turn
+ * protocol as {@link PTLQueue}, without boxing.
+ * <p>
+ * Instead of a null value, the turn of the slot tells if it is filled, see
+ * {@link PTLPrimitiveQueueBase}; the values are stored widened to long next to their turns. Any int value can be queued, but
+ * {@link #poll()} returns the {@code emptyValue} given at construction if the queue
+ * is empty, so a queued value equal to it is indistinguishable from an empty queue
+ * there; use {@link #poll(IntConsumer)} or {@link #drain(IntConsumer, int)} if such values occur.
+ */
+public final class PTLIntQueue extends PTLPrimitiveQueueBase<IntConsumer> {
+    private final int emptyValue;
+    public PTLIntQueue(int capacity, int emptyValue) {
+        this(capacity, emptyValue, BusySpinWaitStrategy.INSTANCE);
+    }
+    public PTLIntQueue(int capacity, int emptyValue, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.emptyValue = emptyValue;
+    }
+    /**
+     * @return the value returned by poll if the queue is empty
+     */
+    public int emptyValue() {
+        return emptyValue;
+    }
+    public void put(int value, Runnable ifWait) {
+        putValue(value, ifWait);
+    }
+    public void put(int value) throws InterruptedException {
+        putValue(value);
+    }
+    public boolean offer(int value) {
+        return offerValue(value);
+    }
+    public int take(Runnable ifWait) {
+        return (int)consume(takeTicket(ifWait));
+    }
+    public int take() throws InterruptedException {
+        return (int)consume(takeTicket());
+    }
+    /**
+     * Polls a value.
+     * @return the value or the empty value if the queue is (seemingly) empty
+     */
+    public int poll() {
+        long ticket = claim(false);
+        return ticket < 0L ? emptyValue : (int)consume(ticket);
+    }
+    /**
+     * Polls a value and hands it to the consumer.
+     * @param consumer the consumer of the value
+     * @return true if a value was polled, false if the queue is (seemingly) empty
+     */
+    public boolean poll(IntConsumer consumer) {
+        long ticket = claim(false);
+        if (ticket < 0L) {
+            return false;
+        }
+        consumer.accept((int)consume(ticket));
+        return true;
+    }
+    /**
+     * Polls a value and returns the empty value only if the poll cursor
+     * didn't move while checking the slot.
+     * @return the value or the empty value if the queue is empty
+     */
+    public int pollStrong() {
+        long ticket = claim(true);
+        return ticket < 0L ? emptyValue : (int)consume(ticket);
+    }
+    /**
+     * Polls a run of available values with a single cursor update.
+     * @param consumer the consumer of the values
+     * @param limit the maximum number of values to poll
+     * @return the number of values polled, zero if the queue is empty
+     */
+    public int drain(IntConsumer consumer, int limit) {
+        return drainValues(consumer, limit);
+    }
+    @Override
+    void emit(IntConsumer consumer, long value) {
+        consumer.accept((int)value);
+    }
+}
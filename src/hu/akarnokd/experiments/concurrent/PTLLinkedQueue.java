@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * An unbounded MPMC queue which chains fixed-size segments, each using the
+ * per-slot turn protocol of {@link PTLQueue} with globally unique tickets.
+ * <p>
+ * The producer of the first ticket of a segment links it after the previous
+ * one; the other producers of that segment wait for it to appear. A segment
+ * is recycled into a small pool once it was fully consumed, its successor
+ * was linked and it became the head, whichever of these happens last. As
+ * turns hold tickets, a thread holding a stale reference to a recycled segment
+ * never matches a turn in it and looks up the segment again.
+ * <p>
+ * Does not support null values.
+ */
+public final class PTLLinkedQueue<E> {
+    static final long CONSUMED = -1L;
+    static final int COMPLETE = 1;
+    static final int LINKED = 2;
+    static final int HEAD = 4;
+    static final int ALL = COMPLETE | LINKED | HEAD;
+    private final int mask;
+    private final int segmentSize;
+    private final PaddedAtomicLong offerCursor;
+    private final PaddedAtomicLong pollCursor;
+    private final PaddedAtomicReference<Segment<E>> head;
+    private final PaddedAtomicReference<Segment<E>> tail;
+    private final AtomicReferenceArray<Segment<E>> pool;
+    public PTLLinkedQueue(int segmentSize) {
+        this(segmentSize, 4);
+    }
+    /**
+     * @param segmentSize the number of slots per segment, rounded up to a power of 2
+     * @param poolSize the maximum number of drained segments kept for reuse
+     */
+    public PTLLinkedQueue(int segmentSize, int poolSize) {
+        segmentSize = Pow2.pow2(segmentSize);
+        this.mask = segmentSize - 1;
+        this.segmentSize = segmentSize;
+        this.offerCursor = new PaddedAtomicLong();
+        this.pollCursor = new PaddedAtomicLong();
+        this.pool = new AtomicReferenceArray<>(poolSize);
+        Segment<E> s = new Segment<>(segmentSize);
+        s.init(0L);
+        s.state.lazySet(HEAD);
+        this.head = new PaddedAtomicReference<>();
+        this.tail = new PaddedAtomicReference<>();
+        head.lazySet(s);
+        tail.set(s);
+    }
+    /**
+     * Offers a value; always succeeds.
+     * @param value the value to offer, not null
+     * @return true
+     */
+    public boolean offer(E value) {
+        if (value == null) {
+            throw new NullPointerException("Null values not allowed here!");
+        }
+        long ticket = offerCursor.getAndIncrement();
+        int slot = (int)ticket & mask;
+        long base = ticket - slot;
+        Segment<E> s;
+        if (slot == 0 && ticket != 0L) {
+            s = append(base);
+        } else {
+            int round = 0;
+            for (;;) {
+                s = find(base);
+                if (s != null && s.turns.get(slot) == ticket) {
+                    break;
+                }
+                round = backoff(round);
+            }
+        }
+        s.values.set(slot, value);
+        return true;
+    }
+    public E poll() {
+        PaddedAtomicLong pc = pollCursor;
+        int m = mask;
+        for (;;) {
+            long ticket = pc.get();
+            int slot = (int)ticket & m;
+            Segment<E> s = find(ticket - slot);
+            if (s == null || s.turns.get(slot) != ticket) {
+                if (pc.get() != ticket) {
+                    continue;
+                }
+                return null;
+            }
+            E v = s.values.get(slot);
+            if (v == null) {
+                if (((pc.get() ^ ticket) | (s.turns.get(slot) ^ ticket)) != 0) {
+                    continue;
+                }
+                return null;
+            }
+            if (pc.compareAndSet(ticket, ticket + 1)) {
+                s.values.lazySet(slot, null);
+                s.turns.set(slot, CONSUMED);
+                if (s.consumed.incrementAndGet() == segmentSize) {
+                    mark(s, COMPLETE);
+                }
+                return v;
+            }
+        }
+    }
+    public int size() {
+        long after = pollCursor.get();
+        for (;;) {
+            long before = after;
+            long oc = offerCursor.get();
+            after = pollCursor.get();
+            if (before == after) {
+                long s = oc - after;
+                return s <= 0L ? 0 : (s >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)s);
+            }
+        }
+    }
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    /**
+     * Links a segment for the given base after the segment of the previous base,
+     * waiting for that to be linked first.
+     */
+    Segment<E> append(long base) {
+        long prevBase = base - segmentSize;
+        Segment<E> t;
+        int round = 0;
+        while ((t = tail.get()).base != prevBase) {
+            round = backoff(round);
+        }
+        Segment<E> s = obtain(base);
+        t.next = s;
+        tail.set(s);
+        mark(t, LINKED);
+        return s;
+    }
+    /**
+     * Locates the linked segment with the given base.
+     * @return the segment or null if it is not (or no longer) reachable or
+     * a concurrent recycling was detected
+     */
+    Segment<E> find(long base) {
+        Segment<E> s = tail.get();
+        if (s.base == base) {
+            return s;
+        }
+        s = head.get();
+        long b = s.base;
+        while (b != base) {
+            if (b < 0L || b > base) {
+                return null;
+            }
+            Segment<E> n = s.next;
+            if (n == null || s.base != b) {
+                return null;
+            }
+            s = n;
+            b = s.base;
+        }
+        return s;
+    }
+    /**
+     * Sets a state bit of the segment; the thread which completes the
+     * state moves the head to the next segment and recycles this one.
+     */
+    void mark(Segment<E> s, int bit) {
+        for (;;) {
+            if (s.state.addAndGet(bit) != ALL) {
+                return;
+            }
+            Segment<E> n = s.next;
+            head.set(n);
+            recycle(s);
+            s = n;
+            bit = HEAD;
+        }
+    }
+    void recycle(Segment<E> s) {
+        s.base = -1L;
+        s.next = null;
+        AtomicReferenceArray<Segment<E>> p = pool;
+        for (int i = 0; i < p.length(); i++) {
+            if (p.get(i) == null && p.compareAndSet(i, null, s)) {
+                return;
+            }
+        }
+    }
+    Segment<E> obtain(long base) {
+        AtomicReferenceArray<Segment<E>> p = pool;
+        Segment<E> s = null;
+        for (int i = 0; i < p.length(); i++) {
+            Segment<E> c = p.get(i);
+            if (c != null && p.compareAndSet(i, c, null)) {
+                s = c;
+                break;
+            }
+        }
+        if (s == null) {
+            s = new Segment<>(segmentSize);
+        }
+        s.init(base);
+        return s;
+    }
+    static int backoff(int round) {
+        if (round < 64) {
+            return round + 1;
+        }
+        Thread.yield();
+        return round;
+    }
+    static final class Segment<E> {
+        final AtomicLongArray turns;
+        final AtomicReferenceArray<E> values;
+        final AtomicInteger consumed;
+        final AtomicInteger state;
+        /** The first ticket of the segment, -1 while pooled. */
+        volatile long base;
+        volatile Segment<E> next;
+        Segment(int size) {
+            this.turns = new AtomicLongArray(size);
+            this.values = new AtomicReferenceArray<>(size);
+            this.consumed = new AtomicInteger();
+            this.state = new AtomicInteger();
+            this.base = -1L;
+        }
+        /** Prepares the segment before it gets linked. */
+        void init(long base) {
+            AtomicLongArray ts = turns;
+            int n = ts.length();
+            for (int i = 0; i < n; i++) {
+                ts.lazySet(i, base + i);
+            }
+            consumed.lazySet(0);
+            state.lazySet(0);
+            this.base = base;
+        }
+    }
+}
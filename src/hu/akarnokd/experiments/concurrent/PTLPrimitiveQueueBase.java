@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The per-slot turn protocol of {@link PTLLongQueue} and {@link PTLIntQueue}
+ * over primitive long values; the subclasses only narrow the values to their
+ * public types.
+ * <p>
+ * The turn and value of a slot are interleaved in a single array. Instead of
+ * a null value, the turn tells if the slot is filled: it is {@code 2 * ticket}
+ * while the slot waits for the producer of the ticket and {@code 2 * ticket + 1}
+ * once the value of the ticket is available.
+ * @param <C> the primitive consumer type of the drain
+ */
+abstract class PTLPrimitiveQueueBase<C> {
+    final int mask;
+    final int length;
+    final PaddedAtomicLong offerCursor;
+    final PaddedAtomicLong pollCursor;
+    /** Turn at index 2 * slot, value at index 2 * slot + 1. */
+    final AtomicLongArray slots;
+    final WaitStrategy waitStrategy;
+    PTLPrimitiveQueueBase(int capacity, WaitStrategy waitStrategy) {
+        capacity = Pow2.pow2(capacity);
+        mask = capacity - 1;
+        length = capacity;
+        offerCursor = new PaddedAtomicLong();
+        pollCursor = new PaddedAtomicLong();
+        slots = new AtomicLongArray(capacity * 2);
+        this.waitStrategy = waitStrategy;
+        for  (int i = 0; i < length - 1; i++) {
+            slots.lazySet(i * 2, i * 2L);
+        }
+        slots.set((length - 1) * 2, (length - 1) * 2L);
+    }
+    final void putValue(long value, Runnable ifWait) {
+        long ticket = offerCursor.getAndIncrement();
+        int ti = ((int)ticket & mask) << 1;
+        while (slots.get(ti) != ticket << 1) {
+            ifWait.run();
+        }
+        slots.lazySet(ti + 1, value);
+        slots.set(ti, (ticket << 1) + 1);
+        waitStrategy.signal();
+    }
+    final void putValue(long value) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        int round = 0;
+        try {
+            while (!offerValue(value)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    final boolean offerValue(long value) {
+        int m = mask;
+        PaddedAtomicLong oc = offerCursor;
+        AtomicLongArray a = slots;
+        for (;;) {
+            long ticket = oc.get();
+            int ti = ((int)ticket & m) << 1;
+            if (a.get(ti) != ticket << 1) {
+                return false;
+            }
+            if (oc.compareAndSet(ticket, ticket + 1)) {
+                a.lazySet(ti + 1, value);
+                a.set(ti, (ticket << 1) + 1);
+                waitStrategy.signal();
+                return true;
+            }
+        }
+    }
+    /**
+     * Claims the next ticket and waits for its value via the given back-off.
+     * @param ifWait called while the value isn't available
+     * @return the ticket to {@link #consume(long)}
+     */
+    final long takeTicket(Runnable ifWait) {
+        long ticket = pollCursor.getAndIncrement();
+        int ti = ((int)ticket & mask) << 1;
+        while (slots.get(ti) != (ticket << 1) + 1) {
+            ifWait.run();
+        }
+        return ticket;
+    }
+    /**
+     * Claims a ticket with an available value, waiting for one according to the wait strategy.
+     * @return the ticket to {@link #consume(long)}
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    final long takeTicket() throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        int round = 0;
+        try {
+            for (;;) {
+                long ticket = claim(true);
+                if (ticket >= 0L) {
+                    return ticket;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    /**
+     * Claims the ticket of the next available value.
+     * @param strong if true, report empty only if the poll cursor didn't move
+     * while checking the slot
+     * @return the ticket to {@link #consume(long)} or -1 if the queue is (seemingly) empty
+     */
+    final long claim(boolean strong) {
+        int m = mask;
+        PaddedAtomicLong pc = pollCursor;
+        AtomicLongArray a = slots;
+        for (;;) {
+            long ticket = pc.get();
+            int ti = ((int)ticket & m) << 1;
+            if (a.get(ti) != (ticket << 1) + 1) {
+                if (strong && pc.get() != ticket) {
+                    continue;
+                }
+                return -1L;
+            }
+            if (pc.compareAndSet(ticket, ticket + 1)) {
+                return ticket;
+            }
+        }
+    }
+    /**
+     * Reads the value of a claimed ticket and hands its slot to the producer of the next round.
+     * @param ticket the ticket claimed
+     * @return the value
+     */
+    final long consume(long ticket) {
+        int ti = ((int)ticket & mask) << 1;
+        AtomicLongArray a = slots;
+        long v = a.get(ti + 1);
+        a.set(ti, (ticket + length) << 1);
+        waitStrategy.signal();
+        return v;
+    }
+    /**
+     * Hands a drained value to the consumer, narrowed to the public type.
+     */
+    abstract void emit(C consumer, long value);
+    /**
+     * Polls a run of available values with a single cursor update and hands them to the
+     * consumer via {@link #emit(Object, long)}. Each slot is released before its value is
+     * handed over; if the consumer throws, the rest of the run is released and lost.
+     */
+    final int drainValues(C consumer, int limit) {
+        int m = mask;
+        int max = Math.min(limit, length);
+        PaddedAtomicLong pc = pollCursor;
+        AtomicLongArray a = slots;
+        for (;;) {
+            long ticket = pc.get();
+            int n = 0;
+            while (n < max && a.get(((int)(ticket + n) & m) << 1) == ((ticket + n) << 1) + 1) {
+                n++;
+            }
+            if (n == 0) {
+                return 0;
+            }
+            if (pc.compareAndSet(ticket, ticket + n)) {
+                int i = 0;
+                try {
+                    for (; i < n; i++) {
+                        int ti = ((int)(ticket + i) & m) << 1;
+                        long v = a.get(ti + 1);
+                        a.set(ti, (ticket + i + length) << 1);
+                        emit(consumer, v);
+                    }
+                } finally {
+                    // releases the slots after i if the consumer threw at slot i
+                    for (i++; i < n; i++) {
+                        a.set(((int)(ticket + i) & m) << 1, (ticket + i + length) << 1);
+                    }
+                    waitStrategy.signal();
+                }
+                return n;
+            }
+        }
+    }
+    public final int size() {
+        long after = pollCursor.get();
+        for (;;) {
+            long before = after;
+            long oc = offerCursor.get();
+            after = pollCursor.get();
+            if (before == after) {
+                long s = oc - after;
+                return s <= 0L ? 0 : (s >= length ? length : (int)s);
+            }
+        }
+    }
+    public final boolean isEmpty() {
+        return size() == 0;
+    }
+}
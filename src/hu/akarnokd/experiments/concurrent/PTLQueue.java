@@ -16,23 +16,47 @@
 
 package hu.akarnokd.experiments.concurrent;
 
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 /**
  * A bounded MPMC queue implementation based on 
  * https://blogs.oracle.com/dave/entry/ptlqueue_a_scalable_bounded_capacity 
  * <p>
  * Does not support null values.
+ * <p>
+ * The blocking {@code put} and {@code take} methods back off via the
+ * {@link WaitStrategy} given at construction; the variants taking a
+ * {@code Runnable} leave the back-off to the caller.
+ * <p>
+ * The iterator is weakly consistent. {@link #remove(Object)} and the iterator's
+ * {@code remove()} replace the value with a marker in place, the consumers skip
+ * the marked slots; {@link #size()} counts them until then.
+ * <p>
+ * Contention is counted into the {@link QueueTelemetry} given at construction,
+ * if any.
  */
-public final class PTLQueue<E> {
+public final class PTLQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
     private final int mask;
     private final int length;
     private final PaddedAtomicLong offerCursor;
     private final PaddedAtomicLong pollCursor;
     private final AtomicLongArray turns;
     private final AtomicReferenceArray<E> values;
+    private final WaitStrategy waitStrategy;
+    private final QueueTelemetry telemetry;
+    /** Replaces a removed value until a consumer reaches its slot. */
+    static final Object REMOVED = new Object();
     public PTLQueue(int capacity) {
+        this(capacity, BusySpinWaitStrategy.INSTANCE);
+    }
+    public PTLQueue(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, null);
+    }
+    public PTLQueue(int capacity, WaitStrategy waitStrategy, QueueTelemetry telemetry) {
         capacity = Pow2.pow2(capacity);
         mask = capacity - 1;
         length = capacity;
@@ -40,32 +64,162 @@ public final class PTLQueue<E> {
         pollCursor = new PaddedAtomicLong();
         turns = new AtomicLongArray(capacity);
         values = new AtomicReferenceArray<>(capacity);
+        this.waitStrategy = waitStrategy;
+        this.telemetry = telemetry;
         for  (int i = 0; i < length - 1; i++) {
             turns.lazySet(i, i);
         }
         turns.set(length - 1, length - 1);
     }
+    /**
+     * @return the telemetry counters or null if not instrumented
+     */
+    public QueueTelemetry telemetry() {
+        return telemetry;
+    }
     public void put(E value, Runnable ifWait) {
         nullCheck(value);
         long ticket = offerCursor.getAndIncrement();
         int slot = (int)ticket & mask;
+        long spins = 0L;
         while (turns.get(slot) != ticket) {
             ifWait.run();
+            spins++;
         }
         values.set(slot, value);
+        waitStrategy.signal();
+        QueueTelemetry t = telemetry;
+        if (t != null && spins != 0L) {
+            t.putSpins.add(spins);
+        }
     }
+    /**
+     * Offers the value, waiting for free space according to the wait strategy.
+     * @param value the value to offer
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @Override
+    public void put(E value) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            while (!offer(value, false)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+                if (t != null) {
+                    t.putSpins.increment();
+                }
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    /**
+     * Offers the value, waiting at most the given time for free space
+     * according to the wait strategy.
+     * @param value the value to offer
+     * @param time the maximum time to wait
+     * @param unit the unit of the time
+     * @return true if the value was offered, false if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean put(E value, long time, TimeUnit unit) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        long nanos = unit.toNanos(time);
+        long deadline = System.nanoTime() + nanos;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            while (!offer(value, false)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (nanos <= 0L) {
+                    if (t != null) {
+                        t.fullRejections.increment();
+                    }
+                    return false;
+                }
+                round = ws.idle(round, nanos);
+                if (t != null) {
+                    t.putSpins.increment();
+                }
+                nanos = deadline - System.nanoTime();
+            }
+            return true;
+        } finally {
+            ws.done(round);
+        }
+    }
+    @Override
     public boolean offer(E value) {
+        return offer(value, true);
+    }
+    private boolean offer(E value, boolean countReject) {
         nullCheck(value);
+        QueueTelemetry t = telemetry;
         for (;;) {
             long ticket = offerCursor.get();
             int slot = (int)ticket & mask;
             if (turns.get(slot) != ticket) {
+                if (t != null && countReject) {
+                    t.fullRejections.increment();
+                }
                 return false;
             }
             if (offerCursor.compareAndSet(ticket, ticket + 1)) {
                 values.set(slot, value);
+                waitStrategy.signal();
                 return true;
             }
+            if (t != null) {
+                t.offerCasFailures.increment();
+            }
+        }
+    }
+    /**
+     * Offers a run of values, reserving consecutive tickets for them with
+     * a single cursor update.
+     * @param src the source array
+     * @param off the offset of the first value to offer
+     * @param len the maximum number of values to offer
+     * @return the number of values offered, zero if the queue is full
+     */
+    public int offerBatch(E[] src, int off, int len) {
+        int m = mask;
+        int max = Math.min(len, length);
+        PaddedAtomicLong oc = offerCursor;
+        AtomicLongArray ts = turns;
+        for (;;) {
+            long ticket = oc.get();
+            int n = 0;
+            while (n < max && ts.get((int)(ticket + n) & m) == ticket + n) {
+                nullCheck(src[off + n]);
+                n++;
+            }
+            if (n == 0) {
+                QueueTelemetry t = telemetry;
+                if (t != null) {
+                    t.fullRejections.increment();
+                }
+                return 0;
+            }
+            if (oc.compareAndSet(ticket, ticket + n)) {
+                AtomicReferenceArray<E> vs = values;
+                for (int i = 0; i < n - 1; i++) {
+                    vs.lazySet((int)(ticket + i) & m, src[off + i]);
+                }
+                vs.set((int)(ticket + n - 1) & m, src[off + n - 1]);
+                waitStrategy.signal();
+                return n;
+            }
+            QueueTelemetry t = telemetry;
+            if (t != null) {
+                t.offerCasFailures.increment();
+            }
         }
     }
     private void nullCheck(E value) {
@@ -74,40 +228,253 @@ public final class PTLQueue<E> {
         }
     }
     public E take(Runnable ifWait) {
-        long ticket = pollCursor.getAndIncrement();
-        int slot = (int)ticket & mask;
-        while (turns.get(slot) != ticket) {
-            ifWait.run();
-        }
+        long spins = 0L;
         for (;;) {
-            E v = values.get(slot);
-            if (v != null) {
-                values.lazySet(slot, null);
-                turns.set(slot, ticket /* + mask + 1*/);
+            long ticket = pollCursor.getAndIncrement();
+            int slot = (int)ticket & mask;
+            while (turns.get(slot) != ticket) {
+                ifWait.run();
+                spins++;
+            }
+            while (values.get(slot) == null) {
+                ifWait.run();
+                spins++;
+            }
+            E v = values.getAndSet(slot, null);
+            turns.set(slot, ticket + length);
+            waitStrategy.signal();
+            if (v != REMOVED) {
+                QueueTelemetry t = telemetry;
+                if (t != null && spins != 0L) {
+                    t.takeSpins.add(spins);
+                }
                 return v;
             }
-            ifWait.run();
         }
     }
+    /**
+     * Polls a value, waiting for one according to the wait strategy.
+     * @return the value polled
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @Override
+    public E take() throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            for (;;) {
+                E v = pollStrong(false);
+                if (v != null) {
+                    return v;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                round = ws.idle(round);
+                if (t != null) {
+                    t.takeSpins.increment();
+                }
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    /**
+     * Polls a value, waiting at most the given time for one according
+     * to the wait strategy.
+     * @param time the maximum time to wait
+     * @param unit the unit of the time
+     * @return the value polled or null if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public E take(long time, TimeUnit unit) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        long nanos = unit.toNanos(time);
+        long deadline = System.nanoTime() + nanos;
+        QueueTelemetry t = telemetry;
+        int round = 0;
+        try {
+            for (;;) {
+                E v = pollStrong(false);
+                if (v != null) {
+                    return v;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (nanos <= 0L) {
+                    if (t != null) {
+                        t.emptyRejections.increment();
+                    }
+                    return null;
+                }
+                round = ws.idle(round, nanos);
+                if (t != null) {
+                    t.takeSpins.increment();
+                }
+                nanos = deadline - System.nanoTime();
+            }
+        } finally {
+            ws.done(round);
+        }
+    }
+    @Override
+    public boolean offer(E value, long time, TimeUnit unit) throws InterruptedException {
+        return put(value, time, unit);
+    }
+    @Override
+    public E poll(long time, TimeUnit unit) throws InterruptedException {
+        return take(time, unit);
+    }
+    @Override
     public E poll() {
+        QueueTelemetry t = telemetry;
+        for (;;) {
+            long ticket = pollCursor.get();
+            int slot = (int)ticket & mask;
+            E v;
+            if (turns.get(slot) != ticket || (v = values.get(slot)) == null) {
+                if (t != null) {
+                    // the queue wasn't empty if an offer already claimed the ticket
+                    if (offerCursor.get() > ticket) {
+                        t.pollSpuriousNulls.increment();
+                    } else {
+                        t.emptyRejections.increment();
+                    }
+                }
+                return null;
+            }
+            if (pollCursor.compareAndSet(ticket, ticket + 1)) {
+                v = values.getAndSet(slot, null);
+                turns.set(slot, ticket + length);
+                waitStrategy.signal();
+                if (v == REMOVED) {
+                    continue;
+                }
+                return v;
+            }
+            if (t != null) {
+                t.pollCasFailures.increment();
+            }
+        }
+    }
+    public E pollStrong() {
+        return pollStrong(true);
+    }
+    private E pollStrong(boolean countReject) {
+        QueueTelemetry t = telemetry;
         for (;;) {
             long ticket = pollCursor.get();
             int slot = (int)ticket & mask;
             if (turns.get(slot) != ticket) {
+                if (pollCursor.get() != ticket) {
+                    if (t != null) {
+                        t.pollRetries.increment();
+                    }
+                    continue;
+                }
+                if (t != null && countReject) {
+                    t.emptyRejections.increment();
+                }
                 return null;
             }
             E v = values.get(slot);
             if (v == null) {
+                if (((pollCursor.get() ^ ticket) | (turns.get(slot) ^ ticket)) != 0) {
+                    if (t != null) {
+                        t.pollRetries.increment();
+                    }
+                    continue;
+                }
+                if (t != null && countReject) {
+                    t.emptyRejections.increment();
+                }
                 return null;
             }
             if (pollCursor.compareAndSet(ticket, ticket + 1)) {
-                values.lazySet(slot, null);
+                v = values.getAndSet(slot, null);
                 turns.set(slot, ticket + length);
+                waitStrategy.signal();
+                if (v == REMOVED) {
+                    continue;
+                }
                 return v;
             }
+            if (t != null) {
+                t.pollCasFailures.increment();
+            }
         }
     }
-    public E pollStrong() {
+    /**
+     * Polls a run of available values, reserving their tickets with a single
+     * cursor update, and hands them to the consumer in order.
+     * <p>
+     * Each slot is released before its value is handed over. If the consumer
+     * throws, the rest of the reserved slots are released and their values
+     * are lost.
+     * @param consumer the consumer of the values
+     * @param limit the maximum number of values to poll
+     * @return the number of values polled, zero if the queue is empty
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        int m = mask;
+        int max = Math.min(limit, length);
+        PaddedAtomicLong pc = pollCursor;
+        AtomicLongArray ts = turns;
+        AtomicReferenceArray<E> vs = values;
+        for (;;) {
+            long ticket = pc.get();
+            int n = 0;
+            while (n < max) {
+                int slot = (int)(ticket + n) & m;
+                if (ts.get(slot) != ticket + n || vs.get(slot) == null) {
+                    break;
+                }
+                n++;
+            }
+            if (n == 0) {
+                QueueTelemetry t = telemetry;
+                if (t != null) {
+                    t.emptyRejections.increment();
+                }
+                return 0;
+            }
+            if (pc.compareAndSet(ticket, ticket + n)) {
+                int k = 0;
+                int i = 0;
+                try {
+                    for (; i < n; i++) {
+                        int slot = (int)(ticket + i) & m;
+                        E v = vs.getAndSet(slot, null);
+                        ts.set(slot, ticket + i + length);
+                        if (v != REMOVED) {
+                            k++;
+                            consumer.accept(v);
+                        }
+                    }
+                } finally {
+                    // releases the slots after i if the consumer threw at slot i
+                    for (i++; i < n; i++) {
+                        int slot = (int)(ticket + i) & m;
+                        vs.lazySet(slot, null);
+                        ts.set(slot, ticket + i + length);
+                    }
+                    waitStrategy.signal();
+                }
+                if (k == 0) {
+                    continue;
+                }
+                return k;
+            }
+            QueueTelemetry t = telemetry;
+            if (t != null) {
+                t.pollCasFailures.increment();
+            }
+        }
+    }
+    @Override
+    public E peek() {
         for (;;) {
             long ticket = pollCursor.get();
             int slot = (int)ticket & mask;
@@ -124,11 +491,156 @@ public final class PTLQueue<E> {
                 }
                 return null;
             }
-            if (pollCursor.compareAndSet(ticket, ticket + 1)) {
-                values.lazySet(slot, null);
-                turns.set(slot, ticket + length);
+            if (v == REMOVED) {
+                // consume the marker so that the head is a live value
+                if (pollCursor.compareAndSet(ticket, ticket + 1)) {
+                    values.lazySet(slot, null);
+                    turns.set(slot, ticket + length);
+                    waitStrategy.signal();
+                }
+                continue;
+            }
+            if (pollCursor.get() == ticket) {
                 return v;
             }
         }
     }
+    @Override
+    public int size() {
+        long after = pollCursor.get();
+        for (;;) {
+            long before = after;
+            long oc = offerCursor.get();
+            after = pollCursor.get();
+            if (before == after) {
+                long s = oc - after;
+                return s <= 0L ? 0 : (s >= length ? length : (int)s);
+            }
+        }
+    }
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+    /**
+     * Removes one value equal to the given object by replacing it with a marker
+     * which the consumers skip.
+     * @param o the object to remove
+     * @return true if a value was removed
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long end = offerCursor.get();
+        for (long t = pollCursor.get(); t < end; t++) {
+            int slot = (int)t & mask;
+            if (turns.get(slot) == t) {
+                E v = values.get(slot);
+                if (v != null && v != REMOVED && o.equals(v) && removeAt(slot, t, v)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    @SuppressWarnings("unchecked")
+    boolean removeAt(int slot, long ticket, E value) {
+        // a consumer takes the value with an atomic swap, the loser of the race sees the other's result
+        return turns.get(slot) == ticket && values.compareAndSet(slot, value, (E)REMOVED);
+    }
+    @Override
+    public int remainingCapacity() {
+        return length - size();
+    }
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+    /**
+     * Moves the available values into the collection, at most the given number.
+     * <p>
+     * If the collection throws, the queue stays usable: the value rejected and the
+     * rest of the run polled with it are lost, the values after that remain queued.
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException("c");
+        }
+        if (c == this) {
+            throw new IllegalArgumentException("Can't drain into itself");
+        }
+        Consumer<? super E> add = c::add;
+        int n = 0;
+        while (n < maxElements) {
+            int k = drain(add, maxElements - n);
+            if (k == 0) {
+                break;
+            }
+            n += k;
+        }
+        return n;
+    }
+    /**
+     * Returns a weakly consistent iterator over the values between the poll
+     * and offer cursors at the time of the call, skipping the ones
+     * consumed or not yet published while iterating.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+    final class Itr implements Iterator<E> {
+        final long end;
+        long ticket;
+        E next;
+        long lastTicket;
+        E last;
+        Itr() {
+            this.ticket = pollCursor.get();
+            this.end = offerCursor.get();
+            advance();
+        }
+        void advance() {
+            while (ticket < end) {
+                long t = ticket++;
+                int slot = (int)t & mask;
+                if (turns.get(slot) == t) {
+                    E v = values.get(slot);
+                    if (v != null && v != REMOVED && turns.get(slot) == t) {
+                        next = v;
+                        return;
+                    }
+                }
+            }
+            next = null;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public E next() {
+            E v = next;
+            if (v == null) {
+                throw new NoSuchElementException();
+            }
+            last = v;
+            lastTicket = ticket - 1;
+            advance();
+            return v;
+        }
+        @Override
+        public void remove() {
+            E v = last;
+            if (v == null) {
+                throw new IllegalStateException();
+            }
+            last = null;
+            // no-op if a consumer took the value in the meantime
+            removeAt((int)lastTicket & mask, lastTicket, v);
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields, then parks for exponentially increasing periods
+ * between the minimum and maximum park time.
+ * <p>
+ * Doesn't need a signal: a waiter notices the change with a delay of
+ * at most the maximum park time.
+ */
+public final class ProgressiveParkWaitStrategy implements WaitStrategy {
+    final int spins;
+    final int yields;
+    final long minParkNanos;
+    final int maxShift;
+    public ProgressiveParkWaitStrategy() {
+        this(100, 10, 1, 1000, TimeUnit.MICROSECONDS);
+    }
+    /**
+     * @param spins the number of rounds to spin
+     * @param yields the number of rounds to yield after spinning
+     * @param minPark the initial park time
+     * @param maxPark the maximum park time, rounded down to minPark times a power of 2
+     * @param unit the time unit of minPark and maxPark
+     */
+    public ProgressiveParkWaitStrategy(int spins, int yields, long minPark, long maxPark, TimeUnit unit) {
+        this.spins = spins;
+        this.yields = spins + yields;
+        this.minParkNanos = Math.max(1L, unit.toNanos(minPark));
+        this.maxShift = 63 - Long.numberOfLeadingZeros(Math.max(1L, unit.toNanos(maxPark) / minParkNanos));
+    }
+    @Override
+    public int idle(int round) {
+        return idle(round, Long.MAX_VALUE);
+    }
+    @Override
+    public int idle(int round, long nanos) {
+        if (round < spins) {
+            return round + 1;
+        }
+        if (round < yields) {
+            Thread.yield();
+            return round + 1;
+        }
+        int shift = round - yields;
+        LockSupport.parkNanos(this, Math.min(minParkNanos << shift, nanos));
+        return shift < maxShift ? round + 1 : round;
+    }
+}
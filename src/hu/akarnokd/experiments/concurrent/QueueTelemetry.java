@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.*;
+
+/**
+ * Contention counters of the ticketed queues, given to their constructor
+ * to switch the instrumentation on.
+ * <p>
+ * The counters are striped so counting doesn't add contention of its own.
+ * Cursor CAS failures point to cursor contention, put/take spins and poll
+ * retries point to waiting on the slot turns.
+ */
+public final class QueueTelemetry implements QueueTelemetryMBean {
+    /** Failed CASes on the offer cursor. */
+    final LongAdder offerCasFailures = new LongAdder();
+    /** Failed CASes on the poll cursor. */
+    final LongAdder pollCasFailures = new LongAdder();
+    /** Back-off rounds while waiting in put. */
+    final LongAdder putSpins = new LongAdder();
+    /** Back-off rounds while waiting in take. */
+    final LongAdder takeSpins = new LongAdder();
+    /** Null returned by a weak poll while an offer was in progress. */
+    final LongAdder pollSpuriousNulls = new LongAdder();
+    /** Re-reads of a strong poll while an offer or poll was in progress. */
+    final LongAdder pollRetries = new LongAdder();
+    /** Offers rejected because the queue was full. */
+    final LongAdder fullRejections = new LongAdder();
+    /** Polls rejected because the queue was empty. */
+    final LongAdder emptyRejections = new LongAdder();
+    @Override
+    public long getOfferCasFailures() {
+        return offerCasFailures.sum();
+    }
+    @Override
+    public long getPollCasFailures() {
+        return pollCasFailures.sum();
+    }
+    @Override
+    public long getPutSpins() {
+        return putSpins.sum();
+    }
+    @Override
+    public long getTakeSpins() {
+        return takeSpins.sum();
+    }
+    @Override
+    public long getPollSpuriousNulls() {
+        return pollSpuriousNulls.sum();
+    }
+    @Override
+    public long getPollRetries() {
+        return pollRetries.sum();
+    }
+    @Override
+    public long getFullRejections() {
+        return fullRejections.sum();
+    }
+    @Override
+    public long getEmptyRejections() {
+        return emptyRejections.sum();
+    }
+    @Override
+    public void reset() {
+        offerCasFailures.reset();
+        pollCasFailures.reset();
+        putSpins.reset();
+        takeSpins.reset();
+        pollSpuriousNulls.reset();
+        pollRetries.reset();
+        fullRejections.reset();
+        emptyRejections.reset();
+    }
+    /**
+     * Returns the current counter values; not atomic with respect
+     * to concurrent updates.
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+    /**
+     * Registers this instance with the platform MBean server.
+     * @param name the queue's name, becomes the name key of the object name
+     * @return the object name to unregister with
+     * @throws JMException if the registration failed
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName on = new ObjectName(getClass().getPackage().getName()
+                + ":type=QueueTelemetry,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        return on;
+    }
+    /**
+     * Immutable copy of the counters.
+     */
+    public static final class Snapshot {
+        public final long offerCasFailures;
+        public final long pollCasFailures;
+        public final long putSpins;
+        public final long takeSpins;
+        public final long pollSpuriousNulls;
+        public final long pollRetries;
+        public final long fullRejections;
+        public final long emptyRejections;
+        Snapshot(QueueTelemetry t) {
+            offerCasFailures = t.getOfferCasFailures();
+            pollCasFailures = t.getPollCasFailures();
+            putSpins = t.getPutSpins();
+            takeSpins = t.getTakeSpins();
+            pollSpuriousNulls = t.getPollSpuriousNulls();
+            pollRetries = t.getPollRetries();
+            fullRejections = t.getFullRejections();
+            emptyRejections = t.getEmptyRejections();
+        }
+        @Override
+        public String toString() {
+            return "Snapshot [offerCasFailures=" + offerCasFailures
+                    + ", pollCasFailures=" + pollCasFailures
+                    + ", putSpins=" + putSpins
+                    + ", takeSpins=" + takeSpins
+                    + ", pollSpuriousNulls=" + pollSpuriousNulls
+                    + ", pollRetries=" + pollRetries
+                    + ", fullRejections=" + fullRejections
+                    + ", emptyRejections=" + emptyRejections + "]";
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.AtomicResizableArrayBase.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.function.Predicate;
+
+/**
+ * Re-emits sequence-numbered values in order: any number of workers insert their results at
+ * their sequence number and a single drainer consumes the contiguous visible prefix.
+ * <p>
+ * The sequence numbers are mapped onto a window of {@code capacity} slots of an
+ * {@link AtomicResizableArray} used as a ring, so no node is allocated per value. A worker may
+ * write into a bank of the next lap only once the drainer has left that bank: the drainer
+ * publishes the limit, the start of the bank it is in plus the capacity, each time it enters
+ * a bank. Thus the window ahead of the drainer is between {@code capacity / 2} and
+ * {@code capacity} sequence numbers.
+ * <p>
+ * With a {@link BankPool}, the drainer unlinks each bank it leaves and offers it to the pool;
+ * without one, the banks stay in place for the next lap.
+ * <p>
+ * The timed {@code put} backs off via the {@link WaitStrategy} given at construction, which
+ * the drainer signals each time it raises the limit.
+ * @param <T> the value type
+ */
+public final class ReorderBuffer<T> {
+    final AtomicResizableArray array;
+    final int mask;
+    final boolean recycle;
+    final WaitStrategy waitStrategy;
+    /** The next sequence number to emit; written by the drainer only. */
+    volatile long head;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<ReorderBuffer> HEAD =
+            AtomicLongFieldUpdater.newUpdater(ReorderBuffer.class, "head");
+    /** The sequence numbers below this can be inserted. */
+    volatile long limit;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<ReorderBuffer> LIMIT =
+            AtomicLongFieldUpdater.newUpdater(ReorderBuffer.class, "limit");
+    /**
+     * @param capacity the window size, rounded up to a power of 2 between 32 and 2^30
+     */
+    public ReorderBuffer(int capacity) {
+        this(capacity, null);
+    }
+    /**
+     * @param capacity the window size, rounded up to a power of 2 between 32 and 2^30
+     * @param pool the pool to recycle the banks behind the drainer into, null to keep them
+     */
+    public ReorderBuffer(int capacity, BankPool<AtomicReferenceArray<Object>> pool) {
+        this(capacity, pool, BusySpinWaitStrategy.INSTANCE);
+    }
+    /**
+     * @param capacity the window size, rounded up to a power of 2 between 32 and 2^30
+     * @param pool the pool to recycle the banks behind the drainer into, null to keep them
+     * @param waitStrategy the wait strategy of the timed put
+     */
+    public ReorderBuffer(int capacity, BankPool<AtomicReferenceArray<Object>> pool, WaitStrategy waitStrategy) {
+        int c = capacity >= 1 << 30 ? 1 << 30 : Pow2.pow2(Math.max(32, capacity));
+        this.mask = c - 1;
+        this.recycle = pool != null;
+        this.waitStrategy = waitStrategy;
+        this.array = pool != null ? new AtomicResizableArray(pool) : new AtomicResizableArray();
+        LIMIT.lazySet(this, c);
+    }
+    /**
+     * @return the next sequence number the drainer will emit
+     */
+    public long next() {
+        return head;
+    }
+    /**
+     * Inserts the value of the given sequence number if it is inside the window.
+     * Each sequence number should be inserted once.
+     * @param seq the sequence number, at least {@link #next()}
+     * @param value the value, not null
+     * @return false if the sequence number is too far ahead of the drainer
+     * @throws IllegalArgumentException if the sequence number is below {@link #next()}
+     */
+    public boolean offer(long seq, T value) {
+        if (seq >= limit) {
+            return false;
+        }
+        long h = head;
+        if (seq < h) {
+            throw new IllegalArgumentException("seq >= " + h + " required but it was " + seq);
+        }
+        array.set((int)seq & mask, value);
+        return true;
+    }
+    /**
+     * Inserts the value of the given sequence number, waiting at most the given time
+     * for the drainer to make room according to the wait strategy.
+     * @param seq the sequence number, at least {@link #next()}
+     * @param value the value, not null
+     * @param time the maximum time to wait
+     * @param unit the unit of the time
+     * @return false if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws IllegalArgumentException if the sequence number is below {@link #next()}
+     */
+    public boolean put(long seq, T value, long time, TimeUnit unit) throws InterruptedException {
+        WaitStrategy ws = waitStrategy;
+        long nanos = unit.toNanos(time);
+        long deadline = System.nanoTime() + nanos;
+        int round = 0;
+        try {
+            while (!offer(seq, value)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (nanos <= 0L) {
+                    return false;
+                }
+                round = ws.idle(round, nanos);
+                nanos = deadline - System.nanoTime();
+            }
+        } finally {
+            ws.done(round);
+        }
+        return true;
+    }
+    /**
+     * Hands the values of the contiguous visible prefix to the predicate in sequence order
+     * and clears them until the predicate returns false; the value rejected is consumed as well.
+     * If the predicate throws, the value it received counts as consumed too.
+     * Should be called by one thread at a time.
+     * @param action the predicate receiving the values
+     * @return the number of values consumed
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Predicate<? super T> action) {
+        AtomicResizableArray a = array;
+        int m = mask;
+        long h = head;
+        int n = 0;
+        try {
+            for (;;) {
+                int index = (int)h & m;
+                Object o = a.lvGet(index);
+                if (o == null) {
+                    break;
+                }
+                a.clear(index);
+                h++;
+                n++;
+                int nextIndex = (int)h & m;
+                int bank = bankOf(index);
+                if (nextIndex == 0 || bankOf(nextIndex) != bank) {
+                    if (recycle) {
+                        a.recycleBank(bank);
+                    }
+                    // volatile write so the signal's check for waiters is ordered after it
+                    limit = h + m + 1;
+                    waitStrategy.signal();
+                }
+                if (!action.test((T)o)) {
+                    break;
+                }
+            }
+        } finally {
+            HEAD.lazySet(this, h);
+        }
+        return n;
+    }
+}
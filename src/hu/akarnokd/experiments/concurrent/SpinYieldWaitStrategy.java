@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * Spins for a number of rounds then yields the thread in each further round.
+ */
+public final class SpinYieldWaitStrategy implements WaitStrategy {
+    final int spins;
+    public SpinYieldWaitStrategy() {
+        this(100);
+    }
+    /**
+     * @param spins the number of rounds to spin before yielding
+     */
+    public SpinYieldWaitStrategy(int spins) {
+        this.spins = spins;
+    }
+    @Override
+    public int idle(int round) {
+        if (round < spins) {
+            return round + 1;
+        }
+        Thread.yield();
+        return round;
+    }
+}
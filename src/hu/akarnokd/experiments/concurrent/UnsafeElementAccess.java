@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static hu.akarnokd.experiments.concurrent.UnsafeAccess.*;
+
+/**
+ * Element access over Object[] via sun.misc.Unsafe.
+ */
+public final class UnsafeElementAccess extends ElementAccess<Object[]> {
+    public static final UnsafeElementAccess INSTANCE = new UnsafeElementAccess();
+    static final long ARRAY_OFFSET;
+    static final int ARRAY_SHIFT;
+    static {
+        ARRAY_OFFSET = UNSAFE.arrayBaseOffset(Object[].class);
+        int scale = UNSAFE.arrayIndexScale(Object[].class);
+        if (scale == 4) {
+            ARRAY_SHIFT = 2;
+        } else
+        if (scale == 8) {
+            ARRAY_SHIFT = 3;
+        } else {
+            throw new IllegalStateException("Unsupported array scale: " + scale);
+        }
+    }
+    private UnsafeElementAccess() {
+    }
+    static long calcOffset(int index) {
+        return ARRAY_OFFSET + ((long)index << ARRAY_SHIFT);
+    }
+    @Override
+    public Object[] newArray(int length) {
+        return new Object[length];
+    }
+    @Override
+    public int length(Object[] array) {
+        return array.length;
+    }
+    @Override
+    public Object lpElement(Object[] array, int index) {
+        return UNSAFE.getObject(array, calcOffset(index));
+    }
+    @Override
+    public Object lvElement(Object[] array, int index) {
+        return UNSAFE.getObjectVolatile(array, calcOffset(index));
+    }
+    @Override
+    public void spElement(Object[] array, int index, Object value) {
+        UNSAFE.putObject(array, calcOffset(index), value);
+    }
+    @Override
+    public void soElement(Object[] array, int index, Object value) {
+        UNSAFE.putOrderedObject(array, calcOffset(index), value);
+    }
+    @Override
+    public boolean casElement(Object[] array, int index, Object expected, Object value) {
+        return UNSAFE.compareAndSwapObject(array, calcOffset(index), expected, value);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * Back-off policy of the blocking operations of the ticketed queues.
+ * <p>
+ * The queue calls {@link #idle(int)} repeatedly while the awaited condition
+ * doesn't hold, {@link #done(int)} once the wait ends and {@link #signal()} after
+ * each change of a slot's state so that strategies which park their waiters
+ * can wake them up.
+ */
+public interface WaitStrategy {
+    /**
+     * Back off after the awaited condition was found not holding.
+     * @param round the round number, zero for the first call of a wait,
+     * the return value of the previous call otherwise
+     * @return the round number for the next call
+     */
+    int idle(int round);
+    /**
+     * Back off for at most the given amount of time after the awaited condition
+     * was found not holding.
+     * @param round the round number, zero for the first call of a wait,
+     * the return value of the previous call otherwise
+     * @param nanos the remaining wait time in nanoseconds, positive
+     * @return the round number for the next call
+     */
+    default int idle(int round, long nanos) {
+        return idle(round);
+    }
+    /**
+     * Called by the waiting thread once the wait ended, successfully, by timeout
+     * or by interruption, if it called one of the {@code idle} methods at least once.
+     * @param round the round number returned by the last {@code idle} call
+     */
+    default void done(int round) {
+        // nothing to clean up by default
+    }
+    /**
+     * Called by the queue after a slot changed its turn or value.
+     * <p>
+     * The change has to end with a volatile write or an atomic update so that
+     * it is ordered before the strategy's check for waiters.
+     */
+    default void signal() {
+        // no waiters to wake up by default
+    }
+}
@@ -16,64 +16,33 @@
 
 package hu.akarnokd.experiments.concurrent.multiqueue;
 
-import rx.functions.*;
+import hu.akarnokd.experiments.concurrent.UnsafeElementAccess;
 
 /**
- * 
+ * The {@link SpscArrayQueue2Base} over an Object[] accessed via sun.misc.Unsafe.
  */
-public final class SpscArrayQueue2<T1, T2> extends SpscArrayQueueBase implements Queue2<T1, T2> {
+public final class SpscArrayQueue2<T1, T2> extends SpscArrayQueue2Base<Object[], T1, T2> {
     public SpscArrayQueue2(int capacity) {
-        super(capacity * 2);
+        super(capacity);
     }
     @Override
-    public boolean offer(T1 t1, T2 t2) {
-        long index = lpProducerIndex();
-        int m = mask;
-        long offset = calcWrappedOffset(index, m);
-        if (lvElement(offset) != null) {
-            return false;
-        }
-        long offset2 = calcWrappedOffset(index + 1, m);
-        spElement(offset2, t2);
-        soElement(offset, t1);
-        soProducerIndex(index + 2);
-        return true;
+    final Object[] newArray(int length) {
+        return UnsafeElementAccess.INSTANCE.newArray(length);
     }
     @Override
-    public boolean peek(Action2<? super T1, ? super T2> out) {
-        long index = lpConsumerIndex();
-        int m = mask;
-        long offset = calcWrappedOffset(index, m);
-        T1 t1 = lvElement(offset);
-        if (t1 == null) {
-            return false;
-        }
-        long offset2 = calcWrappedOffset(index + 1, m);
-        T2 t2 = lpElement(offset2);
-        out.call(t1, t2);
-        return true;
+    final Object lpElement(Object[] array, int index) {
+        return UnsafeElementAccess.INSTANCE.lpElement(array, index);
     }
     @Override
-    public boolean poll(Action2<? super T1, ? super T2> out) {
-        long index = lpConsumerIndex();
-        int m = mask;
-        long offset = calcWrappedOffset(index, m);
-        T1 t1 = lvElement(offset);
-        if (t1 == null) {
-            return false;
-        }
-        long offset2 = calcWrappedOffset(index + 1, m);
-        T2 t2 = lpElement(offset2);
-        spElement(offset2, null);
-        soElement(offset, null);
-        soConsumerIndex(index + 2);
-        out.call(t1, t2);
-        return true;
+    final Object lvElement(Object[] array, int index) {
+        return UnsafeElementAccess.INSTANCE.lvElement(array, index);
     }
     @Override
-    public void clear() {
-        Action2<Object, Object> emptyAction = Actions.empty();
-        while (poll(emptyAction) || !isEmpty())
-            ;
+    final void spElement(Object[] array, int index, Object value) {
+        UnsafeElementAccess.INSTANCE.spElement(array, index, value);
+    }
+    @Override
+    final void soElement(Object[] array, int index, Object value) {
+        UnsafeElementAccess.INSTANCE.soElement(array, index, value);
     }
 }
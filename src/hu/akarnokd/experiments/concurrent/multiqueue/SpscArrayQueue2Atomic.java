@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent.multiqueue;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import hu.akarnokd.experiments.concurrent.AtomicElementAccess;
+
+/**
+ * The {@link SpscArrayQueue2Base} over an AtomicReferenceArray.
+ */
+public final class SpscArrayQueue2Atomic<T1, T2> extends SpscArrayQueue2Base<AtomicReferenceArray<Object>, T1, T2> {
+    public SpscArrayQueue2Atomic(int capacity) {
+        super(capacity);
+    }
+    @Override
+    final AtomicReferenceArray<Object> newArray(int length) {
+        return AtomicElementAccess.INSTANCE.newArray(length);
+    }
+    @Override
+    final Object lpElement(AtomicReferenceArray<Object> array, int index) {
+        return AtomicElementAccess.INSTANCE.lpElement(array, index);
+    }
+    @Override
+    final Object lvElement(AtomicReferenceArray<Object> array, int index) {
+        return AtomicElementAccess.INSTANCE.lvElement(array, index);
+    }
+    @Override
+    final void spElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        AtomicElementAccess.INSTANCE.spElement(array, index, value);
+    }
+    @Override
+    final void soElement(AtomicReferenceArray<Object> array, int index, Object value) {
+        AtomicElementAccess.INSTANCE.soElement(array, index, value);
+    }
+}
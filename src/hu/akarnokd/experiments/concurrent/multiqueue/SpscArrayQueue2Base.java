@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent.multiqueue;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import rx.functions.*;
+import rx.internal.util.unsafe.Pow2;
+
+/**
+ * A single-producer single-consumer bounded queue of value pairs; each pair takes two
+ * consecutive slots of a circular array and its first value tells if the slot is full.
+ * <p>
+ * The algorithm is written once against the abstract element accessors, which each backend
+ * subclass implements as final methods.
+ * @param <A> the array type of the backend
+ * @param <T1> the first value type
+ * @param <T2> the second value type
+ */
+public abstract class SpscArrayQueue2Base<A, T1, T2> implements Queue2<T1, T2> {
+    final A array;
+    final int mask;
+    volatile long producerIndex;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<SpscArrayQueue2Base> PRODUCER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(SpscArrayQueue2Base.class, "producerIndex");
+    volatile long consumerIndex;
+    @SuppressWarnings("rawtypes")
+    static final AtomicLongFieldUpdater<SpscArrayQueue2Base> CONSUMER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(SpscArrayQueue2Base.class, "consumerIndex");
+    /**
+     * @param capacity the number of pairs, rounded up to a power of 2
+     */
+    public SpscArrayQueue2Base(int capacity) {
+        int c = Pow2.roundToPowerOfTwo(capacity * 2);
+        this.mask = c - 1;
+        this.array = newArray(c);
+    }
+    abstract A newArray(int length);
+    abstract Object lpElement(A array, int index);
+    abstract Object lvElement(A array, int index);
+    abstract void spElement(A array, int index, Object value);
+    abstract void soElement(A array, int index, Object value);
+
+    final long lpProducerIndex() {
+        return producerIndex;
+    }
+    final long lvProducerIndex() {
+        return producerIndex;
+    }
+    final void soProducerIndex(long value) {
+        PRODUCER_INDEX.lazySet(this, value);
+    }
+    final long lpConsumerIndex() {
+        return consumerIndex;
+    }
+    final long lvConsumerIndex() {
+        return consumerIndex;
+    }
+    final void soConsumerIndex(long value) {
+        CONSUMER_INDEX.lazySet(this, value);
+    }
+    static int calcWrappedOffset(long index, int mask) {
+        return (int)index & mask;
+    }
+    @Override
+    public final boolean offer(T1 t1, T2 t2) {
+        A a = array;
+        long index = lpProducerIndex();
+        int m = mask;
+        int offset = calcWrappedOffset(index, m);
+        if (lvElement(a, offset) != null) {
+            return false;
+        }
+        int offset2 = calcWrappedOffset(index + 1, m);
+        spElement(a, offset2, t2);
+        soElement(a, offset, t1);
+        soProducerIndex(index + 2);
+        return true;
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public final boolean peek(Action2<? super T1, ? super T2> out) {
+        A a = array;
+        long index = lpConsumerIndex();
+        int m = mask;
+        int offset = calcWrappedOffset(index, m);
+        T1 t1 = (T1)lvElement(a, offset);
+        if (t1 == null) {
+            return false;
+        }
+        int offset2 = calcWrappedOffset(index + 1, m);
+        T2 t2 = (T2)lpElement(a, offset2);
+        out.call(t1, t2);
+        return true;
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public final boolean poll(Action2<? super T1, ? super T2> out) {
+        A a = array;
+        long index = lpConsumerIndex();
+        int m = mask;
+        int offset = calcWrappedOffset(index, m);
+        T1 t1 = (T1)lvElement(a, offset);
+        if (t1 == null) {
+            return false;
+        }
+        int offset2 = calcWrappedOffset(index + 1, m);
+        T2 t2 = (T2)lpElement(a, offset2);
+        spElement(a, offset2, null);
+        soElement(a, offset, null);
+        soConsumerIndex(index + 2);
+        out.call(t1, t2);
+        return true;
+    }
+    @Override
+    public final void clear() {
+        Action2<Object, Object> emptyAction = Actions.empty();
+        while (poll(emptyAction) || !isEmpty())
+            ;
+    }
+    /**
+     * Returns the number of values, twice the number of pairs.
+     */
+    @Override
+    public final int size() {
+        long after = lvConsumerIndex();
+        while (true) {
+            final long before = after;
+            final long currentProducerIndex = lvProducerIndex();
+            after = lvConsumerIndex();
+            if (before == after) {
+                return (int) (currentProducerIndex - after);
+            }
+        }
+    }
+    @Override
+    public final boolean isEmpty() {
+        return lvProducerIndex() == lvConsumerIndex();
+    }
+}
@@ -23,9 +23,9 @@ import static hu.akarnokd.experiments.concurrent.UnsafeAccess.*;
  */
 public abstract class SpscArrayQueueBase extends ArrayQueueBase implements QueueBase {
     private long producerIndex;
-    private static final long PRODUCER_INDEX = addressOf(SpscArrayQueue2.class, "producerIndex");
+    private static final long PRODUCER_INDEX = addressOf(SpscArrayQueueBase.class, "producerIndex");
     private long consumerIndex;
-    private static final long CONSUMER_INDEX = addressOf(SpscArrayQueue2.class, "consumerIndex");
+    private static final long CONSUMER_INDEX = addressOf(SpscArrayQueueBase.class, "consumerIndex");
     public SpscArrayQueueBase(int capacity) {
         super(capacity);
     }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * The {@link AtomicArrayQueueBase} over Object[] buffers accessed via VarHandles, Java 9+.
+ */
+public class AtomicArrayQueueVarHandle extends AtomicArrayQueueBase<Object[]> {
+    public AtomicArrayQueueVarHandle(int initial, int maxCapacity) {
+        this(initial, maxCapacity, HIGH_TRAFFIC_QUEUE_THRESHOLD, 0, 0);
+    }
+    /**
+     * Constructs a queue with the given growth policy.
+     * @param initial the initial capacity
+     * @param maxCapacity the maximum capacity
+     * @param highTrafficThreshold the number of offers since the initial size buffer was started
+     * after which the queue moves to the maximum capacity, {@code Long.MAX_VALUE} to grow
+     * only when full
+     */
+    public AtomicArrayQueueVarHandle(int initial, int maxCapacity, long highTrafficThreshold) {
+        this(initial, maxCapacity, highTrafficThreshold, 0, 0);
+    }
+    public AtomicArrayQueueVarHandle(int initial, int maxCapacity, int shrinkWatermark, int quietPeriod) {
+        this(initial, maxCapacity, HIGH_TRAFFIC_QUEUE_THRESHOLD, shrinkWatermark, quietPeriod);
+    }
+    /**
+     * Constructs a queue which shrinks back to its initial capacity after traffic subsides,
+     * see {@link AtomicArrayQueueBase#AtomicArrayQueueBase(int, int, long, int, int)}.
+     */
+    public AtomicArrayQueueVarHandle(int initial, int maxCapacity, long highTrafficThreshold, int shrinkWatermark, int quietPeriod) {
+        super(initial, maxCapacity, highTrafficThreshold, shrinkWatermark, quietPeriod);
+    }
+    @Override
+    final Object[] newArray(int length) {
+        return VarHandleElementAccess.INSTANCE.newArray(length);
+    }
+    @Override
+    final int length(Object[] array) {
+        return VarHandleElementAccess.INSTANCE.length(array);
+    }
+    @Override
+    final Object lpElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lpElement(array, index);
+    }
+    @Override
+    final Object lvElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lvElement(array, index);
+    }
+    @Override
+    final void soElement(Object[] array, int index, Object value) {
+        VarHandleElementAccess.INSTANCE.soElement(array, index, value);
+    }
+    @Override
+    final boolean casElement(Object[] array, int index, Object expected, Object value) {
+        return VarHandleElementAccess.INSTANCE.casElement(array, index, expected, value);
+    }
+}
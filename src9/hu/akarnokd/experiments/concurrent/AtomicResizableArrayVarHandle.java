@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+/**
+ * The {@link AtomicResizableArrayBase} over Object[] banks accessed via VarHandles, Java 9+.
+ */
+public final class AtomicResizableArrayVarHandle extends AtomicResizableArrayBase<Object[]> {
+    public AtomicResizableArrayVarHandle() {
+        super();
+    }
+    /**
+     * Constructs an array which takes its banks from and returns them to the given pool.
+     * @param pool the bank pool, may be shared between arrays
+     */
+    public AtomicResizableArrayVarHandle(BankPool<Object[]> pool) {
+        super(pool);
+    }
+    @Override
+    final Object[] newArray(int length) {
+        return VarHandleElementAccess.INSTANCE.newArray(length);
+    }
+    @Override
+    final int length(Object[] array) {
+        return VarHandleElementAccess.INSTANCE.length(array);
+    }
+    @Override
+    final Object lpElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lpElement(array, index);
+    }
+    @Override
+    final Object lvElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lvElement(array, index);
+    }
+    @Override
+    final void spElement(Object[] array, int index, Object value) {
+        VarHandleElementAccess.INSTANCE.spElement(array, index, value);
+    }
+    @Override
+    final void soElement(Object[] array, int index, Object value) {
+        VarHandleElementAccess.INSTANCE.soElement(array, index, value);
+    }
+    @Override
+    final boolean casElement(Object[] array, int index, Object expected, Object value) {
+        return VarHandleElementAccess.INSTANCE.casElement(array, index, expected, value);
+    }
+}
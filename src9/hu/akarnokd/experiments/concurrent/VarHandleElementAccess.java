@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import java.lang.invoke.*;
+
+/**
+ * Element access over Object[] via VarHandle: acquire loads and release stores.
+ */
+public final class VarHandleElementAccess extends ElementAccess<Object[]> {
+    public static final VarHandleElementAccess INSTANCE = new VarHandleElementAccess();
+    static final VarHandle ARRAY = MethodHandles.arrayElementVarHandle(Object[].class);
+    private VarHandleElementAccess() {
+    }
+    @Override
+    public Object[] newArray(int length) {
+        return new Object[length];
+    }
+    @Override
+    public int length(Object[] array) {
+        return array.length;
+    }
+    @Override
+    public Object lpElement(Object[] array, int index) {
+        return ARRAY.get(array, index);
+    }
+    @Override
+    public Object lvElement(Object[] array, int index) {
+        return ARRAY.getAcquire(array, index);
+    }
+    @Override
+    public void spElement(Object[] array, int index, Object value) {
+        ARRAY.set(array, index, value);
+    }
+    @Override
+    public void soElement(Object[] array, int index, Object value) {
+        ARRAY.setRelease(array, index, value);
+    }
+    @Override
+    public boolean casElement(Object[] array, int index, Object expected, Object value) {
+        return ARRAY.compareAndSet(array, index, expected, value);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent.multiqueue;
+
+import hu.akarnokd.experiments.concurrent.VarHandleElementAccess;
+
+/**
+ * The {@link SpscArrayQueue2Base} over an Object[] accessed via VarHandles, Java 9+.
+ */
+public final class SpscArrayQueue2VarHandle<T1, T2> extends SpscArrayQueue2Base<Object[], T1, T2> {
+    public SpscArrayQueue2VarHandle(int capacity) {
+        super(capacity);
+    }
+    @Override
+    final Object[] newArray(int length) {
+        return VarHandleElementAccess.INSTANCE.newArray(length);
+    }
+    @Override
+    final Object lpElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lpElement(array, index);
+    }
+    @Override
+    final Object lvElement(Object[] array, int index) {
+        return VarHandleElementAccess.INSTANCE.lvElement(array, index);
+    }
+    @Override
+    final void spElement(Object[] array, int index, Object value) {
+        VarHandleElementAccess.INSTANCE.spElement(array, index, value);
+    }
+    @Override
+    final void soElement(Object[] array, int index, Object value) {
+        VarHandleElementAccess.INSTANCE.soElement(array, index, value);
+    }
+}
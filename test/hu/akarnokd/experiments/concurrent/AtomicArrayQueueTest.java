@@ -17,7 +17,7 @@ package hu.akarnokd.experiments.concurrent;
 
 import static org.junit.Assert.*;
 
-import java.util.Queue;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -186,4 +186,240 @@ public class AtomicArrayQueueTest {
         
         assertEquals(5, queue.peek());
     }
+    @Test
+    public void testShrinkBackAfterQuietPeriod() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 1024, 2, 16);
+        int k = 0;
+        int j = 0;
+        for (int i = 0; i < 20; i++) {
+            queue.offer(k++);
+        }
+        assertEquals(32, queue.lvBuffer().length());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(j++, queue.poll());
+        }
+        for (int i = 0; i < 16; i++) {
+            queue.offer(k++);
+            assertEquals(j++, queue.poll());
+        }
+        assertEquals(32, queue.lvBuffer().length());
+        queue.offer(k++);
+        assertEquals(8, queue.lvBuffer().length());
+        assertEquals(1, queue.size());
+        assertEquals(j, queue.peek());
+        assertEquals(j++, queue.poll());
+        assertNull(queue.poll());
+
+        // a new burst grows it again
+        for (int i = 0; i < 20; i++) {
+            queue.offer(k++);
+        }
+        assertEquals(32, queue.lvBuffer().length());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(j++, queue.poll());
+        }
+    }
+    @Test
+    public void testNoShrinkWhileBusy() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 1024, 2, 16);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(i);
+        }
+        for (int i = 20; i < 200; i++) {
+            queue.offer(i);
+            assertEquals(i - 20, queue.poll());
+        }
+        assertEquals(1024, queue.lvBuffer().length());
+    }
+    @Test(timeout = 10000)
+    public void testShrinkGrowConcurrent() throws Exception {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 256, 1, 4);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                while (!queue.offer(i)) {
+                    Thread.yield();
+                }
+                if ((i & 1023) == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        for (int i = 0; i < n; i++) {
+            Object o;
+            while ((o = queue.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, o);
+        }
+        t.join();
+    }
+    @Test
+    public void testGrowByDoubling() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 1024, Long.MAX_VALUE);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(i);
+        }
+        assertEquals(8, queue.lvBuffer().length());
+        queue.offer(8);
+        assertEquals(16, queue.lvBuffer().length());
+        for (int i = 9; i < 200; i++) {
+            queue.offer(i);
+        }
+        assertEquals(256, queue.lvBuffer().length());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, queue.poll());
+        }
+        // stays at the size the demand needed
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(i);
+            assertEquals(i, queue.poll());
+        }
+        assertEquals(256, queue.lvBuffer().length());
+    }
+    @Test
+    public void testGrowByDoublingWrapped() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(4, 64, Long.MAX_VALUE);
+        int k = 0;
+        int j = 0;
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < 3; i++) {
+                queue.offer(k++);
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(j++, queue.poll());
+            }
+        }
+        for (int i = 0; i < 64; i++) {
+            assertTrue(queue.offer(k++));
+        }
+        assertFalse(queue.offer(k));
+        assertEquals(64, queue.lvBuffer().length());
+        for (int i = 0; i < 64; i++) {
+            assertEquals(j++, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+    @Test
+    public void testHighTrafficJumpsToMax() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 1024, 16L);
+        for (int i = 0; i < 16; i++) {
+            queue.offer(i);
+            assertEquals(i, queue.poll());
+        }
+        assertEquals(8, queue.lvBuffer().length());
+        queue.offer(16);
+        assertEquals(1024, queue.lvBuffer().length());
+        assertEquals(16, queue.poll());
+    }
+    @Test(timeout = 10000)
+    public void testGrowByDoublingConcurrent() throws Exception {
+        AtomicArrayQueue queue = new AtomicArrayQueue(2, 1024, Long.MAX_VALUE, 1, 8);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                while (!queue.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        for (int i = 0; i < n; i++) {
+            Object o;
+            while ((o = queue.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, o);
+        }
+        t.join();
+    }
+    @Test
+    public void testIterator() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(4, 16);
+        assertFalse(queue.iterator().hasNext());
+        assertEquals("[]", queue.toString());
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        queue.poll();
+        queue.poll();
+        assertEquals("[2, 3, 4, 5, 6, 7, 8, 9]", queue.toString());
+        assertTrue(queue.contains(5));
+        assertFalse(queue.contains(1));
+
+        Iterator<Object> it = queue.iterator();
+        assertEquals(2, it.next());
+        queue.poll();
+        queue.poll();
+        queue.poll();
+        // the element already fetched is returned, the consumed ones after it skipped
+        assertEquals(3, it.next());
+        List<Object> rest = new ArrayList<>();
+        it.forEachRemaining(rest::add);
+        assertEquals(Arrays.asList(5, 6, 7, 8, 9), rest);
+    }
+    @Test
+    public void testSizeWhileGrowingAndShrinking() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(4, 64, Long.MAX_VALUE, 0, 2);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(i);
+            assertEquals(i + 1, queue.size());
+        }
+        for (int i = 0; i < 20; i++) {
+            queue.poll();
+            assertEquals(19 - i, queue.size());
+        }
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+            assertEquals(1, queue.size());
+            queue.poll();
+            assertTrue(queue.isEmpty());
+        }
+        assertEquals(4, queue.lvBuffer().length());
+    }
+    @Test
+    public void testFillDrainAcrossShrink() {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 32, 2, 4);
+        int[] k = { 0 };
+        List<Object> out = new ArrayList<>();
+        assertEquals(20, queue.fill(() -> k[0]++, 20));
+        assertEquals(32, queue.lvBuffer().length());
+        assertEquals(20, queue.drain(out::add, 100));
+        for (int i = 0; i < 4; i++) {
+            queue.offer(k[0]++);
+            assertEquals(1, queue.drain(out::add, 100));
+        }
+        queue.offer(k[0]++);
+        assertEquals(8, queue.lvBuffer().length());
+        assertEquals(3, queue.fill(() -> k[0]++, 3));
+        assertEquals(4, queue.drain(out::add, 100));
+        for (int i = 0; i < k[0]; i++) {
+            assertEquals(i, out.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+    @Test(timeout = 10000)
+    public void testFillDrainShrinkConcurrent() throws Exception {
+        AtomicArrayQueue queue = new AtomicArrayQueue(8, 256, 2, 4);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            int[] k = { 0 };
+            while (k[0] < n) {
+                // alternate bursts which grow and trickles which let it shrink
+                int burst = (k[0] >> 10 & 1) == 0 ? 64 : 1;
+                if (queue.fill(() -> k[0]++, Math.min(burst, n - k[0])) == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        int[] expected = { 0 };
+        while (expected[0] < n) {
+            if (queue.drain(v -> assertEquals(expected[0]++, v), 128) == 0) {
+                Thread.yield();
+            }
+        }
+        t.join();
+    }
 }
@@ -17,7 +17,7 @@ package hu.akarnokd.experiments.concurrent;
 
 import static org.junit.Assert.*;
 
-import java.util.Queue;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -186,4 +186,57 @@ public class AtomicArrayQueueUnsafeTest {
         
         assertEquals(5, queue.peek());
     }
+    @Test
+    public void testFillDrain() {
+        AtomicArrayQueueUnsafe queue = new AtomicArrayQueueUnsafe(4, 16);
+        int[] k = { 0 };
+        // grows on the way
+        assertEquals(10, queue.fill(() -> k[0]++, 10));
+        List<Object> out = new ArrayList<>();
+        assertEquals(3, queue.drain(out::add, 3));
+        assertEquals(Arrays.asList(0, 1, 2), out);
+
+        // wraps around and stops at the capacity
+        assertEquals(9, queue.fill(() -> k[0]++, 20));
+        assertFalse(queue.offer(100));
+        assertEquals(16, queue.drain(out::add, 100));
+        for (int i = 0; i < 19; i++) {
+            assertEquals(i, out.get(i));
+        }
+        assertEquals(0, queue.drain(out::add, 100));
+        assertNull(queue.poll());
+    }
+    @Test
+    public void testDrainSmall() {
+        AtomicArrayQueueUnsafe queue = new AtomicArrayQueueUnsafe(8, 1024);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        List<Object> out = new ArrayList<>();
+        assertEquals(5, queue.drain(out::add, 10));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), out);
+        queue.offer(5);
+        assertEquals(5, queue.poll());
+    }
+    @Test(timeout = 10000)
+    public void testFillDrainConcurrent() throws Exception {
+        AtomicArrayQueueUnsafe queue = new AtomicArrayQueueUnsafe(8, 256);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            int[] k = { 0 };
+            while (k[0] < n) {
+                if (queue.fill(() -> k[0]++, Math.min(64, n - k[0])) == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        int[] expected = { 0 };
+        while (expected[0] < n) {
+            if (queue.drain(v -> assertEquals(expected[0]++, v), 128) == 0) {
+                Thread.yield();
+            }
+        }
+        t.join();
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class AtomicLinkedArrayQueueTest {
+    @Test
+    public void testSimpleOfferPoll() {
+        Queue<Object> q = new AtomicLinkedArrayQueue(8);
+        for (int i = 0; i < 10000; i++) {
+            q.offer(i);
+            assertEquals(i, q.poll());
+        }
+        assertNull(q.poll());
+    }
+    @Test
+    public void testLinksChunks() {
+        AtomicLinkedArrayQueue q = new AtomicLinkedArrayQueue(8);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertEquals(100, q.size());
+        assertEquals(0, q.peek());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, q.peek());
+            assertEquals(i, q.poll());
+        }
+        assertNull(q.peek());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+    @Test
+    public void testLinksChunksHalfwayReading() {
+        AtomicLinkedArrayQueue q = new AtomicLinkedArrayQueue(4);
+        int k = 0;
+        int j = 0;
+        for (int r = 0; r < 10; r++) {
+            for (int i = 0; i < r + 1; i++) {
+                q.offer(k++);
+            }
+            for (int i = 0; i < r / 2 + 1; i++) {
+                assertEquals(j++, q.poll());
+            }
+        }
+        assertEquals(k - j, q.size());
+        while (j < k) {
+            assertEquals(j++, q.poll());
+        }
+        assertNull(q.poll());
+    }
+    @Test
+    public void testRecyclesConsumedChunk() {
+        AtomicLinkedArrayQueue q = new AtomicLinkedArrayQueue(4);
+        for (int i = 0; i < 6; i++) {
+            q.offer(i);
+        }
+        assertNull(q.spare.get());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, q.poll());
+        }
+        Object left = q.spare.get();
+        assertNotNull(left);
+
+        for (int i = 6; i < 12; i++) {
+            q.offer(i);
+        }
+        assertSame(left, q.producerBuffer);
+        assertNull(q.spare.get());
+        for (int i = 6; i < 12; i++) {
+            assertEquals(i, q.poll());
+        }
+        assertNull(q.poll());
+    }
+    @Test
+    public void testIterator() {
+        AtomicLinkedArrayQueue q = new AtomicLinkedArrayQueue(4);
+        assertFalse(q.iterator().hasNext());
+        for (int i = 0; i < 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(0, q.poll());
+        assertEquals("[1, 2, 3, 4, 5, 6, 7, 8, 9]", q.toString());
+        assertTrue(q.contains(9));
+        assertFalse(q.contains(0));
+
+        Iterator<Object> it = q.iterator();
+        for (int i = 1; i < 4; i++) {
+            assertEquals(i, it.next());
+        }
+        // the consumer overtakes the iterator, which has already read 4
+        for (int i = 1; i < 6; i++) {
+            assertEquals(i, q.poll());
+        }
+        assertEquals(4, it.next());
+        for (int i = 6; i < 10; i++) {
+            assertEquals(i, it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+    @Test
+    public void testCapacityLimit() {
+        Queue<Object> q = new AtomicLinkedArrayQueue(4, 10);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse(q.offer(10));
+
+        assertEquals(0, q.poll());
+
+        assertTrue(q.offer(10));
+        for (int i = 1; i < 11; i++) {
+            assertEquals(i, q.poll());
+        }
+    }
+    @Test(timeout = 10000)
+    public void testConcurrent() throws Exception {
+        AtomicLinkedArrayQueue q = new AtomicLinkedArrayQueue(16, 1000);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                while (!q.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        for (int i = 0; i < n; i++) {
+            Object o;
+            while ((o = q.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, o);
+        }
+        t.join();
+    }
+}
@@ -15,10 +15,11 @@
  */
 package hu.akarnokd.experiments.concurrent;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
 
 import org.junit.Test;
 
@@ -58,4 +59,213 @@ public class AtomicResizableArrayTest {
 		}
 	}
 
+	@Test
+	public void testSpliteratorSplitsAtBanks() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		for (int i = 0; i < 100; i++) {
+			ara.add(i);
+		}
+		Spliterator<Object> s1 = ara.spliterator();
+		assertEquals(100, s1.estimateSize());
+		// [64, 100) is the last bank
+		Spliterator<Object> s0 = s1.trySplit();
+		assertEquals(64, s0.estimateSize());
+		assertEquals(36, s1.estimateSize());
+		assertNull(s1.trySplit());
+
+		List<Object> list = new ArrayList<>();
+		assertTrue(s0.tryAdvance(list::add));
+		s0.forEachRemaining(list::add);
+		s1.forEachRemaining(list::add);
+		assertEquals(100, list.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, list.get(i));
+		}
+		assertFalse(s1.tryAdvance(list::add));
+	}
+
+	@Test
+	public void testSpliteratorSplitsWithinBank() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		for (int i = 0; i < 8192 + 4096; i++) {
+			ara.add(i);
+		}
+		Spliterator<Object> s1 = ara.spliterator();
+		Spliterator<Object> s0 = s1.trySplit();
+		assertEquals(8192, s0.estimateSize());
+		Spliterator<Object> s2 = s1.trySplit();
+		assertEquals(2048, s2.estimateSize());
+		assertEquals(2048, s1.estimateSize());
+		assertEquals(1024, s1.trySplit().estimateSize());
+		assertNull(s1.trySplit());
+	}
+
+	@Test
+	public void testParallelForEach() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		int n = 1000000;
+		for (int i = 0; i < n; i++) {
+			ara.add(i);
+		}
+		LongAdder sum = new LongAdder();
+		LongAdder cnt = new LongAdder();
+		ara.parallelForEach(v -> {
+			sum.add((Integer)v);
+			cnt.increment();
+		});
+		assertEquals(n, cnt.sum());
+		assertEquals((long)n * (n - 1) / 2, sum.sum());
+	}
+
+	@Test
+	public void testAddAll() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		Integer[] src = new Integer[300];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = i;
+		}
+		ara.add(-1);
+		// spans the banks of 16, 16, 32, 64 and 128
+		ara.addAll(src, 10, 200);
+		ara.addAll(src, 0, 0);
+		ara.add(-2);
+		assertEquals(202, ara.size());
+		assertEquals(-1, ara.get(0));
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i + 10, ara.get(i + 1));
+		}
+		assertEquals(-2, ara.get(201));
+	}
+
+	@Test
+	public void testAddAllNullAddsNothing() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		try {
+			ara.addAll(new Object[] { 1, null, 3 }, 0, 3);
+			fail("Should have thrown");
+		} catch (NullPointerException expected) {
+			// expected
+		}
+		assertEquals(0, ara.size());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testAddAllBounds() {
+		new AtomicResizableArray().addAll(new Object[4], 2, 3);
+	}
+
+	@Test(timeout = 10000)
+	public void testAddAllConcurrent() throws Exception {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		int batches = 2000;
+		int batch = 100;
+		Thread[] ts = new Thread[2];
+		for (int t = 0; t < ts.length; t++) {
+			int base = t * batches * batch;
+			ts[t] = new Thread(() -> {
+				Integer[] src = new Integer[batch];
+				for (int b = 0; b < batches; b++) {
+					for (int i = 0; i < batch; i++) {
+						src[i] = base + b * batch + i;
+					}
+					ara.addAll(src, 0, batch);
+				}
+			});
+			ts[t].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		int n = ts.length * batches * batch;
+		assertEquals(n, ara.size());
+		BitSet seen = new BitSet(n);
+		for (int i = 0; i < n; i += batch) {
+			// each batch stays contiguous
+			int first = (Integer)ara.get(i);
+			for (int j = 0; j < batch; j++) {
+				assertEquals(first + j, ara.get(i + j));
+			}
+			seen.set(first, first + batch);
+		}
+		assertEquals(n, seen.cardinality());
+	}
+
+	@Test
+	public void testLazyClearUsed() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		for (int i = 0; i < 50; i++) {
+			ara.add(i);
+		}
+		ara.lazyClearUsed();
+		assertEquals(0, ara.size());
+		for (int i = 0; i < 50; i++) {
+			assertNull(ara.lvGet(i));
+		}
+		// the banks are kept
+		assertNotNull(ara.lvBank(2));
+		ara.add(1);
+		assertEquals(1, ara.get(0));
+	}
+
+	@Test
+	public void testInsertOutOfOrder() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		int start = ara.reserve(40);
+		assertEquals(0, start);
+		assertEquals(40, ara.size());
+		for (int i = 39; i >= 0; i--) {
+			assertNull(ara.getOrNull(i));
+			ara.insert(i, i);
+		}
+		for (int i = 0; i < 40; i++) {
+			assertEquals(i, ara.get(i));
+		}
+		ara.add(40);
+		assertEquals(40, ara.get(40));
+		// beyond the reserved range raises the size
+		ara.insert(100, 100);
+		assertEquals(101, ara.size());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetNotVisible() {
+		new AtomicResizableArray().get(3);
+	}
+
+	@Test(timeout = 10000)
+	public void testTimedGet() throws InterruptedException {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		assertNull(ara.get(5, 10, TimeUnit.MILLISECONDS));
+		ara.insert(5, "x");
+		assertEquals("x", ara.get(5, 10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void testTimedGetWaitsForWriter() throws Exception {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		int n = 10000;
+		int start = ara.reserve(n);
+		Thread t = new Thread(() -> {
+			for (int i = n - 1; i >= 0; i--) {
+				ara.insert(start + i, i);
+			}
+		});
+		t.start();
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, ara.get(start + i, new SpinYieldWaitStrategy(), 5, TimeUnit.SECONDS));
+		}
+		t.join();
+	}
+
+	@Test(timeout = 10000)
+	public void testTimedGetInterrupted() {
+		AtomicResizableArray ara = new AtomicResizableArray();
+		Thread.currentThread().interrupt();
+		try {
+			ara.get(0, 1, TimeUnit.SECONDS);
+			fail("Should have thrown");
+		} catch (InterruptedException expected) {
+			// expected
+		}
+	}
 }
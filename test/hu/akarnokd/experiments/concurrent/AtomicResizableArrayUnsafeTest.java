@@ -1,8 +1,8 @@
 package hu.akarnokd.experiments.concurrent;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
-import java.util.Random;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
@@ -43,4 +43,28 @@ public class AtomicResizableArrayUnsafeTest {
 		}
 	}
 
+	@Test
+	public void testForEachSeesElements() {
+		AtomicResizableArrayUnsafe ara = new AtomicResizableArrayUnsafe();
+		for (int i = 0; i < 100; i++) {
+			ara.insert(i, i);
+		}
+		final List<Object> list = new ArrayList<>();
+		ara.lazyForEach(list::add);
+		assertEquals(100, list.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, list.get(i));
+		}
+	}
+
+	@Test
+	public void testSizeIsHighestIndex() {
+		AtomicResizableArrayUnsafe ara = new AtomicResizableArrayUnsafe();
+		ara.insert(40, 40);
+		ara.insert(3, 3);
+		assertEquals(41, ara.size());
+		assertNull(ara.getOrNull(20));
+		ara.lazyReset();
+		assertEquals(0, ara.size());
+	}
 }
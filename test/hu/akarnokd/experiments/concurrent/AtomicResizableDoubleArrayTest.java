@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AtomicResizableDoubleArrayTest {
+    @Test
+    public void testAddGet() {
+        AtomicResizableDoubleArray ara = new AtomicResizableDoubleArray();
+        ara.add(0.0);
+        ara.add(-0.0);
+        ara.add(Double.NaN);
+        ara.addAll(new double[] { 1.5, 2.5, Double.POSITIVE_INFINITY }, 1, 2);
+        assertEquals(5, ara.size());
+        assertEquals(Double.doubleToRawLongBits(0.0), Double.doubleToRawLongBits(ara.get(0)));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(ara.get(1)));
+        assertTrue(Double.isNaN(ara.get(2)));
+        assertEquals(2.5, ara.get(3), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, ara.get(4), 0.0);
+        double[] sum = { 0 };
+        ara.lazyForEach(v -> sum[0] += Double.isNaN(v) ? 0 : v);
+        assertEquals(Double.POSITIVE_INFINITY, sum[0], 0.0);
+    }
+}
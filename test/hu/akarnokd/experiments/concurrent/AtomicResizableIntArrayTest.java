@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AtomicResizableIntArrayTest {
+    @Test
+    public void testAddGet() {
+        AtomicResizableIntArray ara = new AtomicResizableIntArray();
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            ara.add(-i);
+        }
+        assertEquals(n, ara.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(-i, ara.get(i));
+        }
+        int[] cnt = { 0 };
+        ara.lazyForEach(v -> assertEquals(-cnt[0]++, v));
+        assertEquals(n, cnt[0]);
+    }
+    @Test
+    public void testAddAllAcrossBanks() {
+        AtomicResizableIntArray ara = new AtomicResizableIntArray();
+        int[] src = new int[1000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        ara.addAll(src, 0, 20);
+        ara.addAll(src, 20, 980);
+        assertEquals(1000, ara.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, ara.get(i));
+        }
+        assertFalse(ara.isPublished(1000));
+    }
+}
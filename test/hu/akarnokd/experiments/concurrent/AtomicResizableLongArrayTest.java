@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class AtomicResizableLongArrayTest {
+    @Test
+    public void testAddGet() {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            ara.add(i * 3L);
+        }
+        assertEquals(n, ara.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i * 3L, ara.get(i));
+        }
+        assertFalse(ara.isPublished(n));
+        long[] sum = { 0 };
+        ara.lazyForEach(v -> sum[0] += v);
+        assertEquals(3L * n * (n - 1) / 2, sum[0]);
+    }
+    @Test
+    public void testZeroIsAValue() {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        ara.add(0L);
+        assertTrue(ara.isPublished(0));
+        assertEquals(0L, ara.get(0));
+    }
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetNotPublished() {
+        new AtomicResizableLongArray().get(5);
+    }
+    @Test
+    public void testAddAll() {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        long[] src = new long[300];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        ara.add(-1L);
+        ara.addAll(src, 10, 200);
+        ara.add(-2L);
+        assertEquals(202, ara.size());
+        assertEquals(-1L, ara.get(0));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i + 10L, ara.get(i + 1));
+        }
+        assertEquals(-2L, ara.get(201));
+    }
+    @Test
+    public void testClearKeepsBanksResetsFlags() {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        for (int i = 0; i < 100; i++) {
+            ara.add(i);
+        }
+        ara.lazyClear();
+        assertEquals(0, ara.size());
+        assertFalse(ara.isPublished(0));
+        assertFalse(ara.isPublished(99));
+        ara.add(7L);
+        assertEquals(7L, ara.get(0));
+        assertFalse(ara.isPublished(1));
+
+        ara.lazyReset();
+        assertEquals(0, ara.size());
+        assertFalse(ara.isPublished(0));
+    }
+    @Test
+    public void testForEachStopsAtUnpublishedSlot() {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        long[] src = new long[100];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        // 16 + 100 spans the first bank and both words of the second
+        ara.addAll(src, 0, 16);
+        ara.addAll(src, 0, 100);
+        // a reserved slot whose writer hasn't published yet
+        ara.reserve(1);
+        ara.add(1000L);
+        assertTrue(ara.isPublished(115));
+        assertFalse(ara.isPublished(116));
+        assertTrue(ara.isPublished(117));
+
+        List<Long> out = new ArrayList<>();
+        ara.lazyForEach(out::add);
+        assertEquals(116, out.size());
+        assertEquals(99L, out.get(115).longValue());
+    }
+    @Test(timeout = 10000)
+    public void testConcurrentAppend() throws Exception {
+        AtomicResizableLongArray ara = new AtomicResizableLongArray();
+        int n = 500000;
+        Thread[] ts = new Thread[2];
+        for (int t = 0; t < ts.length; t++) {
+            long base = (long)t * n;
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    ara.add(base + i);
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(2 * n, ara.size());
+        BitSet seen = new BitSet(2 * n);
+        ara.lazyForEach(v -> seen.set((int)v));
+        assertEquals(2 * n, seen.cardinality());
+    }
+}
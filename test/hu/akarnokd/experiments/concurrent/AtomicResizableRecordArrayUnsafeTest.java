@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class AtomicResizableRecordArrayUnsafeTest {
+    static byte[] record(long a, int b) {
+        byte[] r = new byte[12];
+        ByteBuffer.wrap(r).order(ByteOrder.nativeOrder()).putLong(a).putInt(b);
+        return r;
+    }
+    @Test
+    public void testAddRead() {
+        try (AtomicResizableRecordArrayUnsafe ara = new AtomicResizableRecordArrayUnsafe(12)) {
+            int n = 10000;
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, ara.add(record(i * 10L, -i), 0));
+            }
+            assertEquals(n, ara.size());
+            byte[] out = new byte[14];
+            for (int i = 0; i < n; i++) {
+                assertEquals(i * 10L, ara.getLong(i, 0));
+                assertEquals(-i, ara.getInt(i, 8));
+                assertTrue(ara.read(i, out, 2));
+                assertEquals(-i, ByteBuffer.wrap(out, 10, 4).order(ByteOrder.nativeOrder()).getInt());
+            }
+            assertFalse(ara.isPublished(n));
+            assertFalse(ara.read(n, out, 0));
+            int[] cnt = { 0 };
+            ara.lazyForEach(i -> assertEquals(cnt[0]++, i));
+            assertEquals(n, cnt[0]);
+        }
+    }
+    @Test
+    public void testReservePublish() {
+        try (AtomicResizableRecordArrayUnsafe ara = new AtomicResizableRecordArrayUnsafe(8)) {
+            int i0 = ara.reserve();
+            int i1 = ara.reserve();
+            UnsafeAccess.UNSAFE.putLong(ara.recordAddress(i1), 42L);
+            ara.publish(i1);
+            assertFalse(ara.isPublished(i0));
+            assertEquals(42L, ara.getLong(i1, 0));
+            // the unpublished first record stops the traversal
+            int[] cnt = { 0 };
+            ara.lazyForEach(i -> cnt[0]++);
+            assertEquals(0, cnt[0]);
+            try {
+                ara.getLong(i0, 0);
+                fail("Should have thrown");
+            } catch (IndexOutOfBoundsException expected) {
+                // expected
+            }
+        }
+    }
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testFieldBounds() {
+        try (AtomicResizableRecordArrayUnsafe ara = new AtomicResizableRecordArrayUnsafe(8)) {
+            ara.add(new byte[8], 0);
+            ara.getLong(0, 4);
+        }
+    }
+    @Test
+    public void testClear() {
+        try (AtomicResizableRecordArrayUnsafe ara = new AtomicResizableRecordArrayUnsafe(4)) {
+            for (int i = 0; i < 100; i++) {
+                ara.add(new byte[] { 1, 2, 3, 4 }, 0);
+            }
+            ara.lazyClear();
+            assertEquals(0, ara.size());
+            assertFalse(ara.isPublished(0));
+            assertFalse(ara.isPublished(99));
+            ara.add(new byte[] { 5, 6, 7, 8 }, 0);
+            byte[] out = new byte[4];
+            assertTrue(ara.read(0, out, 0));
+            assertEquals(5, out[0]);
+        }
+    }
+    @Test(timeout = 10000)
+    public void testConcurrentAppend() throws Exception {
+        try (AtomicResizableRecordArrayUnsafe ara = new AtomicResizableRecordArrayUnsafe(12)) {
+            int n = 200000;
+            Thread[] ts = new Thread[2];
+            for (int t = 0; t < ts.length; t++) {
+                int base = t * n;
+                ts[t] = new Thread(() -> {
+                    for (int i = 0; i < n; i++) {
+                        ara.add(record(base + i, base + i), 0);
+                    }
+                });
+                ts[t].start();
+            }
+            for (Thread t : ts) {
+                t.join();
+            }
+            BitSet seen = new BitSet(2 * n);
+            ara.lazyForEach(i -> {
+                long v = ara.getLong(i, 0);
+                assertEquals(v, ara.getInt(i, 8));
+                seen.set((int)v);
+            });
+            assertEquals(2 * n, seen.cardinality());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+public class BankPoolTest {
+    @Test
+    public void testReuseAcrossCycles() {
+        BankPool<AtomicReferenceArray<Object>> pool = new BankPool<>(1 << 20);
+        AtomicResizableArray ara = new AtomicResizableArray(pool);
+        for (int i = 0; i < 100; i++) {
+            ara.add(i);
+        }
+        AtomicReferenceArray<Object> bank3 = ara.lvBank(3);
+        ara.lazyReset();
+        // banks of 16, 16, 32, 64
+        assertEquals(128, pool.pooledSlots());
+        assertNull(ara.lvBank(3));
+
+        for (int i = 0; i < 100; i++) {
+            ara.add(-i);
+        }
+        assertSame(bank3, ara.lvBank(3));
+        assertEquals(0, pool.pooledSlots());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(-i, ara.get(i));
+        }
+        // the pooled bank came back cleared
+        for (int i = 100; i < 128; i++) {
+            assertNull(ara.lvGet(i));
+        }
+    }
+    @Test
+    public void testBounded() {
+        BankPool<Object[]> pool = new BankPool<>(40);
+        assertTrue(pool.release(0, new Object[16]));
+        assertTrue(pool.release(1, new Object[16]));
+        assertFalse(pool.release(2, new Object[32]));
+        assertEquals(32, pool.pooledSlots());
+        assertNull(pool.acquire(2));
+        assertNotNull(pool.acquire(1));
+        assertNull(pool.acquire(1));
+        assertEquals(16, pool.pooledSlots());
+    }
+    @Test
+    public void testSharedPool() {
+        BankPool<Object[]> pool = new BankPool<>(1 << 20);
+        AtomicResizableArrayUnsafe a1 = new AtomicResizableArrayUnsafe(pool);
+        AtomicResizableArrayUnsafe a2 = new AtomicResizableArrayUnsafe(pool);
+        for (int i = 0; i < 40; i++) {
+            a1.insert(i, i);
+        }
+        Object[] bank2 = a1.lvBank(2);
+        a1.lazyReset();
+        for (int i = 0; i < 40; i++) {
+            a2.insert(i, "a2-" + i);
+        }
+        assertSame(bank2, a2.lvBank(2));
+        for (int i = 0; i < 40; i++) {
+            assertEquals("a2-" + i, a2.get(i));
+            assertNull(a1.getOrNull(i));
+        }
+        assertEquals(40, a2.size());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import hu.akarnokd.experiments.concurrent.multiqueue.Queue2;
+
+public class ConcurrentBackendTest {
+    @Test
+    public void testBestIsAvailable() {
+        assertTrue(ConcurrentBackend.best().isAvailable());
+        assertTrue(ConcurrentBackend.ATOMIC.isAvailable());
+        assertTrue(ConcurrentBackend.UNSAFE.isAvailable());
+    }
+    @Test
+    public void testBestOverride() {
+        System.setProperty("hu.akarnokd.experiments.concurrent.backend", "atomic");
+        try {
+            assertEquals(ConcurrentBackend.ATOMIC, ConcurrentBackend.best());
+        } finally {
+            System.clearProperty("hu.akarnokd.experiments.concurrent.backend");
+        }
+    }
+    @Test
+    public void testArrayQueueAllBackends() {
+        for (ConcurrentBackend b : ConcurrentBackend.values()) {
+            if (!b.isAvailable()) {
+                continue;
+            }
+            Queue<Object> q = b.newArrayQueue(4, 16);
+            for (int i = 0; i < 16; i++) {
+                assertTrue(b.name(), q.offer(i));
+            }
+            assertFalse(b.name(), q.offer(16));
+            for (int i = 0; i < 16; i++) {
+                assertEquals(b.name(), i, q.poll());
+            }
+            assertNull(b.name(), q.poll());
+        }
+    }
+    @Test
+    public void testSpscArrayQueue2AllBackends() {
+        for (ConcurrentBackend b : ConcurrentBackend.values()) {
+            if (!b.isAvailable()) {
+                continue;
+            }
+            Queue2<Integer, String> q = b.newSpscArrayQueue2(8);
+            for (int i = 0; i < 8; i++) {
+                assertTrue(b.name(), q.offer(i, "" + i));
+            }
+            assertFalse(b.name(), q.offer(8, "8"));
+            for (int i = 0; i < 8; i++) {
+                int j = i;
+                assertTrue(b.name(), q.poll((x, y) -> {
+                    assertEquals((Integer)j, x);
+                    assertEquals("" + j, y);
+                }));
+            }
+            assertFalse(b.name(), q.poll((x, y) -> fail()));
+        }
+    }
+    @Test
+    public void testResizableArrayAllBackends() {
+        for (ConcurrentBackend b : ConcurrentBackend.values()) {
+            if (!b.isAvailable()) {
+                continue;
+            }
+            AtomicResizableArrayBase<?> a = b.newResizableArray();
+            for (int i = 0; i < 100; i++) {
+                a.insert(i, i);
+            }
+            assertEquals(b.name(), 100, a.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(b.name(), i, a.get(i));
+            }
+            assertNull(b.name(), a.getOrNull(100));
+        }
+    }
+}
@@ -18,6 +18,7 @@ package hu.akarnokd.experiments.concurrent;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
 import java.util.concurrent.*;
 
 import org.junit.Test;
@@ -47,6 +48,128 @@ public class IETLQueueTest {
 
         assertTrue(queue.offer(32));
     }
+    @Test
+    public void testSizePeekDrain() {
+        IETLQueue<Integer> queue = new IETLQueue<>(8);
+        assertEquals(0, queue.size());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+        }
+        assertEquals(6, queue.size());
+        assertEquals((Integer)0, queue.peek());
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(4, queue.drain(out::add, 4));
+        assertEquals(Arrays.asList(0, 1, 2, 3), out);
+        assertEquals((Integer)4, queue.peek());
+
+        // wraps around the end of the array
+        for (int i = 6; i < 12; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(12));
+        assertEquals(8, queue.size());
+
+        assertEquals(8, queue.drain(out::add, 10));
+        assertEquals(12, out.size());
+        for (int i = 0; i < 12; i++) {
+            assertEquals((Integer)i, out.get(i));
+        }
+        assertEquals(0, queue.drain(out::add, 10));
+        assertTrue(queue.isEmpty());
+    }
+    @Test
+    public void testDrainConsumerThrows() {
+        IETLQueue<Integer> queue = new IETLQueue<>(8);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(i);
+        }
+        List<Integer> out = new ArrayList<>();
+        try {
+            queue.drain(v -> {
+                if (v == 2) {
+                    throw new IllegalStateException();
+                }
+                out.add(v);
+            }, 8);
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(Arrays.asList(0, 1), out);
+        // the rest of the run was released, the next lap goes through
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(10 + i));
+        }
+        out.clear();
+        assertEquals(8, queue.drain(out::add, 8));
+        assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15, 16, 17), out);
+    }
+    @Test(timeout = 10000)
+    public void testDrainConcurrent() throws Exception {
+        IETLQueue<Integer> queue = new IETLQueue<>(64);
+        int n = 1000000;
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> f = exec.submit(() -> {
+                for (int i = 0; i < n; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            int[] expected = { 0 };
+            while (expected[0] < n) {
+                if (queue.drain(v -> assertEquals(expected[0]++, v.intValue()), 32) == 0) {
+                    Thread.yield();
+                }
+            }
+            f.get();
+        } finally {
+            exec.shutdown();
+        }
+    }
+    @Test(timeout = 20000)
+    public void testPutTakeWaitStrategies() throws Exception {
+        WaitStrategy[] strategies = {
+            new SpinYieldWaitStrategy(),
+            new ProgressiveParkWaitStrategy(),
+            new BlockingWaitStrategy()
+        };
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            for (WaitStrategy ws : strategies) {
+                IETLQueue<Integer> queue = new IETLQueue<>(16, ws);
+                int n = 100000;
+                Future<?> f = exec.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        queue.put(i);
+                    }
+                    return null;
+                });
+                for (int i = 0; i < n; i++) {
+                    assertEquals((Integer)i, queue.take());
+                }
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+    @Test(timeout = 10000)
+    public void testTakeInterrupted() {
+        IETLQueue<Integer> queue = new IETLQueue<>(2, new BlockingWaitStrategy());
+        Thread.currentThread().interrupt();
+        try {
+            queue.take();
+            fail("Should have thrown");
+        } catch (InterruptedException expected) {
+            // expected
+        }
+    }
     private static void await(CyclicBarrier b) {
         try {
             b.await();
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+public class MpscAtomicArrayQueueTest {
+    @Test
+    public void testSimpleOfferPoll() {
+        Queue<Object> q = new MpscAtomicArrayQueue(8, 64 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            q.offer(i);
+            assertEquals(i, q.poll());
+        }
+        assertNull(q.poll());
+    }
+    @Test
+    public void testStaysSmallWhenQuiet() {
+        MpscAtomicArrayQueue q = new MpscAtomicArrayQueue(8, 64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            q.offer(i);
+            assertEquals(i, q.poll());
+        }
+        assertEquals(8, q.lvBuffer().length());
+    }
+    @Test
+    public void testGrowWhenFull() {
+        MpscAtomicArrayQueue q = new MpscAtomicArrayQueue(8, 64);
+        for (int i = 0; i < 4; i++) {
+            q.offer(i);
+        }
+        assertEquals(0, q.poll());
+        assertEquals(1, q.poll());
+        for (int i = 4; i < 20; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertEquals(64, q.lvBuffer().length());
+        assertEquals(18, q.size());
+        assertEquals(2, q.peek());
+        for (int i = 2; i < 20; i++) {
+            assertEquals(i, q.poll());
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+    @Test
+    public void testIteratorAcrossGrow() {
+        MpscAtomicArrayQueue q = new MpscAtomicArrayQueue(8, 64);
+        for (int i = 0; i < 6; i++) {
+            q.offer(i);
+        }
+        assertEquals(0, q.poll());
+        assertEquals("[1, 2, 3, 4, 5]", q.toString());
+        assertTrue(q.contains(3));
+
+        for (int i = 6; i < 20; i++) {
+            q.offer(i);
+        }
+        assertEquals(64, q.lvBuffer().length());
+        Iterator<Object> it = q.iterator();
+        for (int i = 1; i < 20; i++) {
+            assertEquals(i, it.next());
+        }
+        assertFalse(it.hasNext());
+        assertTrue(q.containsAll(Arrays.asList(1, 19)));
+        assertFalse(q.contains(20));
+    }
+    @Test
+    public void testCapacityLimit() {
+        Queue<Object> q = new MpscAtomicArrayQueue(8, 16);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse(q.offer(16));
+
+        assertEquals(0, q.poll());
+
+        assertTrue(q.offer(16));
+    }
+    @Test(timeout = 20000)
+    public void testMultipleProducers() throws Exception {
+        int producers = 3;
+        int n = 200000;
+        for (int k = 0; k < 10; k++) {
+            MpscAtomicArrayQueue q = new MpscAtomicArrayQueue(8, 1024);
+            ExecutorService exec = Executors.newFixedThreadPool(producers);
+            try {
+                for (int p = 0; p < producers; p++) {
+                    int id = p;
+                    exec.submit(() -> {
+                        for (int i = 0; i < n; i++) {
+                            while (!q.offer(id * n + i)) {
+                                Thread.yield();
+                            }
+                        }
+                    });
+                }
+                int[] next = new int[producers];
+                for (int c = 0; c < producers * n; ) {
+                    Integer v = (Integer)q.poll();
+                    if (v == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    int id = v / n;
+                    assertEquals(id * n + next[id], v.intValue());
+                    next[id]++;
+                    c++;
+                }
+                assertNull(q.poll());
+            } finally {
+                exec.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class PTLCellQueueTest {
+
+    @Test
+    public void testMany() {
+        for (boolean padded : new boolean[] { false, true }) {
+            PTLCellQueue<Integer> queue = new PTLCellQueue<>(32, padded);
+            for (int i = 0; i < 32; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(32));
+            assertEquals(32, queue.size());
+
+            assertEquals((Integer)0, queue.poll());
+
+            assertTrue(queue.offer(32));
+            for (int i = 1; i <= 32; i++) {
+                assertEquals((Integer)i, queue.pollStrong());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+    @Test(timeout = 10000)
+    public void test2Producers2Consumers() throws Exception {
+        PTLCellQueue<Integer> queue = new PTLCellQueue<>(64, true);
+        int n = 100000;
+        AtomicLong sum = new AtomicLong();
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] fs = new Future<?>[4];
+            for (int k = 0; k < 2; k++) {
+                fs[k] = exec.submit(() -> {
+                    for (int i = 1; i <= n; i++) {
+                        queue.put(i, Thread::yield);
+                    }
+                });
+                fs[k + 2] = exec.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        sum.addAndGet(queue.take(Thread::yield));
+                    }
+                });
+            }
+            for (Future<?> f : fs) {
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertEquals(2L * n * (n + 1) / 2, sum.get());
+        assertTrue(queue.isEmpty());
+    }
+}
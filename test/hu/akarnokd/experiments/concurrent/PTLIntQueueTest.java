@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class PTLIntQueueTest {
+
+    @Test
+    public void test() {
+        PTLIntQueue queue = new PTLIntQueue(32, -1);
+        assertEquals(-1, queue.poll());
+        queue.offer(Integer.MIN_VALUE);
+        queue.offer(-1);
+
+        assertEquals(Integer.MIN_VALUE, queue.poll());
+        assertEquals(-1, queue.pollStrong());
+        assertTrue(queue.isEmpty());
+    }
+    @Test
+    public void testMany() {
+        PTLIntQueue queue = new PTLIntQueue(32, -1);
+        for (int i = 0; i < 32; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(32));
+        assertEquals(32, queue.size());
+
+        assertEquals(0, queue.poll());
+
+        assertTrue(queue.offer(32));
+
+        int[] expected = { 1 };
+        assertEquals(32, queue.drain(v -> assertEquals(expected[0]++, v), 64));
+        assertEquals(-1, queue.poll());
+    }
+    @Test
+    public void testPollConsumerTellsEmptyValueApart() {
+        PTLIntQueue queue = new PTLIntQueue(8, -1);
+        queue.offer(-1);
+
+        int[] out = { 0 };
+        assertTrue(queue.poll(v -> out[0] = v));
+        assertEquals(-1, out[0]);
+        assertFalse(queue.poll(v -> fail("Should be empty")));
+    }
+    @Test
+    public void testDrainConsumerThrows() {
+        PTLIntQueue queue = new PTLIntQueue(8, -1);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(i);
+        }
+        try {
+            queue.drain(v -> {
+                if (v == 2) {
+                    throw new IllegalStateException();
+                }
+            }, 8);
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        // the rest of the run was released, the next lap goes through
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(10 + i));
+        }
+        int[] expected = { 10 };
+        assertEquals(8, queue.drain(v -> assertEquals(expected[0]++, v), 8));
+    }
+    @Test(timeout = 10000)
+    public void testPutTake() throws Exception {
+        PTLIntQueue queue = new PTLIntQueue(16, -1, new BlockingWaitStrategy());
+        ExecutorService exec = Executors.newFixedThreadPool(1);
+        try {
+            int n = 100000;
+            Future<?> f = exec.submit(() -> {
+                for (int i = 0; i < n; i++) {
+                    queue.put(i);
+                }
+                return null;
+            });
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, queue.take());
+            }
+            f.get();
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
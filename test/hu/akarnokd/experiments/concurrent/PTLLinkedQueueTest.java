@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class PTLLinkedQueueTest {
+
+    @Test
+    public void testBurstBeyondSegment() {
+        PTLLinkedQueue<Integer> queue = new PTLLinkedQueue<>(8);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(100, queue.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((Integer)i, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+    @Test
+    public void testRecycling() {
+        PTLLinkedQueue<Integer> queue = new PTLLinkedQueue<>(4, 2);
+        for (int k = 0; k < 1000; k++) {
+            for (int i = 0; i < 10; i++) {
+                queue.offer(i);
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals((Integer)i, queue.poll());
+            }
+            assertNull(queue.poll());
+        }
+    }
+    @Test(timeout = 20000)
+    public void test2Producers2Consumers() throws Exception {
+        PTLLinkedQueue<Integer> queue = new PTLLinkedQueue<>(16, 2);
+        int n = 100000;
+        AtomicLong sum = new AtomicLong();
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] fs = new Future<?>[4];
+            for (int k = 0; k < 2; k++) {
+                fs[k] = exec.submit(() -> {
+                    for (int i = 1; i <= n; i++) {
+                        queue.offer(i);
+                    }
+                });
+                fs[k + 2] = exec.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        Integer v;
+                        while ((v = queue.poll()) == null) {
+                            Thread.yield();
+                        }
+                        sum.addAndGet(v);
+                    }
+                });
+            }
+            for (Future<?> f : fs) {
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertEquals(2L * n * (n + 1) / 2, sum.get());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}
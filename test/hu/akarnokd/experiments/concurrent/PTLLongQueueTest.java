@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class PTLLongQueueTest {
+
+    @Test
+    public void test() {
+        PTLLongQueue queue = new PTLLongQueue(32, -1L);
+        assertEquals(-1L, queue.poll());
+        queue.offer(Long.MIN_VALUE);
+        queue.offer(-1L);
+
+        assertEquals(Long.MIN_VALUE, queue.poll());
+        assertEquals(-1L, queue.pollStrong());
+        assertTrue(queue.isEmpty());
+    }
+    @Test
+    public void testMany() {
+        PTLLongQueue queue = new PTLLongQueue(32, -1L);
+        for (long i = 0; i < 32; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(32));
+        assertEquals(32, queue.size());
+
+        assertEquals(0L, queue.poll());
+
+        assertTrue(queue.offer(32));
+
+        long[] expected = { 1 };
+        assertEquals(32, queue.drain(v -> assertEquals(expected[0]++, v), 64));
+        assertEquals(-1L, queue.poll());
+    }
+    @Test
+    public void testPollConsumerTellsEmptyValueApart() {
+        PTLLongQueue queue = new PTLLongQueue(8, -1L);
+        queue.offer(-1L);
+
+        long[] out = { 0 };
+        assertTrue(queue.poll(v -> out[0] = v));
+        assertEquals(-1L, out[0]);
+        assertFalse(queue.poll(v -> fail("Should be empty")));
+    }
+    @Test(timeout = 10000)
+    public void testPutTake() throws Exception {
+        PTLLongQueue queue = new PTLLongQueue(16, -1L, new BlockingWaitStrategy());
+        ExecutorService exec = Executors.newFixedThreadPool(1);
+        try {
+            int n = 100000;
+            Future<?> f = exec.submit(() -> {
+                for (long i = 0; i < n; i++) {
+                    queue.put(i);
+                }
+                return null;
+            });
+            for (long i = 0; i < n; i++) {
+                assertEquals(i, queue.take());
+            }
+            f.get();
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package hu.akarnokd.experiments.concurrent;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
 import java.util.concurrent.*;
 
 import org.junit.*;
@@ -47,6 +48,293 @@ public class PTLQueueTest {
 
         assertTrue(queue.offer(32));
     }
+    @Test
+    public void testOfferBatchDrain() {
+        PTLQueue<Integer> queue = new PTLQueue<>(8);
+        Integer[] src = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+
+        assertEquals(6, queue.offerBatch(src, 0, 6));
+        assertEquals(2, queue.offerBatch(src, 6, 4));
+        assertEquals(0, queue.offerBatch(src, 8, 2));
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(3, queue.drain(out::add, 3));
+        assertEquals(Arrays.asList(0, 1, 2), out);
+
+        // wraps around the end of the array
+        assertEquals(2, queue.offerBatch(src, 8, 2));
+        assertEquals(7, queue.drain(out::add, 10));
+        assertEquals(Arrays.asList(src), out);
+
+        assertEquals(0, queue.drain(out::add, 10));
+        assertNull(queue.poll());
+    }
+    @Test
+    public void testDrainConsumerThrows() {
+        PTLQueue<Integer> queue = new PTLQueue<>(8);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(i);
+        }
+        List<Integer> out = new ArrayList<>();
+        try {
+            queue.drain(v -> {
+                if (v == 2) {
+                    throw new IllegalStateException();
+                }
+                out.add(v);
+            }, 8);
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(Arrays.asList(0, 1), out);
+        // the rest of the run was released, the next lap goes through
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(10 + i));
+        }
+        out.clear();
+        assertEquals(8, queue.drain(out::add, 8));
+        assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15, 16, 17), out);
+    }
+    @Test(timeout = 10000)
+    public void testOfferBatchDrainConcurrent() throws Exception {
+        PTLQueue<Integer> queue = new PTLQueue<>(64);
+        int n = 1000000;
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> f = exec.submit(() -> {
+                Integer[] src = new Integer[16];
+                int i = 0;
+                while (i < n) {
+                    int k = Math.min(src.length, n - i);
+                    for (int j = 0; j < k; j++) {
+                        src[j] = i + j;
+                    }
+                    int r = queue.offerBatch(src, 0, k);
+                    if (r == 0) {
+                        Thread.yield();
+                    }
+                    i += r;
+                }
+            });
+            int[] expected = { 0 };
+            while (expected[0] < n) {
+                if (queue.drain(v -> assertEquals(expected[0]++, v.intValue()), 32) == 0) {
+                    Thread.yield();
+                }
+            }
+            f.get();
+        } finally {
+            exec.shutdown();
+        }
+    }
+    @Test(timeout = 1000)
+    public void testPutTakeRunnableWrapsAround() {
+        PTLQueue<Integer> queue = new PTLQueue<>(4);
+        for (int i = 0; i < 20; i++) {
+            queue.put(i, Thread::yield);
+            assertEquals((Integer)i, queue.take(Thread::yield));
+        }
+    }
+    @Test
+    public void testTimedPutTake() throws InterruptedException {
+        PTLQueue<Integer> queue = new PTLQueue<>(2, new ProgressiveParkWaitStrategy());
+        assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+
+        assertTrue(queue.put(1, 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.put(2, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.put(3, 10, TimeUnit.MILLISECONDS));
+
+        assertEquals((Integer)1, queue.take(10, TimeUnit.MILLISECONDS));
+        assertEquals((Integer)2, queue.take());
+    }
+    @Test(timeout = 10000)
+    public void testTakeInterrupted() throws InterruptedException {
+        PTLQueue<Integer> queue = new PTLQueue<>(2, new BlockingWaitStrategy());
+        Thread.currentThread().interrupt();
+        try {
+            queue.take();
+            fail("Should have thrown");
+        } catch (InterruptedException expected) {
+            // expected
+        }
+    }
+    @Test(timeout = 10000)
+    public void testBlockingWaitersUnregister() throws InterruptedException {
+        BlockingWaitStrategy ws = new BlockingWaitStrategy(0);
+        PTLQueue<Integer> queue = new PTLQueue<>(2, ws);
+
+        assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+        assertNull(ws.waiters.get());
+
+        assertTrue(queue.put(1, 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.put(2, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.put(3, 10, TimeUnit.MILLISECONDS));
+        assertNull(ws.waiters.get());
+    }
+    @Test(timeout = 20000)
+    public void testPutTakeWaitStrategies() throws Exception {
+        WaitStrategy[] strategies = {
+            BusySpinWaitStrategy.INSTANCE,
+            new SpinYieldWaitStrategy(),
+            new ProgressiveParkWaitStrategy(),
+            new BlockingWaitStrategy()
+        };
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            for (WaitStrategy ws : strategies) {
+                PTLQueue<Integer> queue = new PTLQueue<>(16, ws);
+                int n = ws == BusySpinWaitStrategy.INSTANCE ? 1000 : 100000;
+                Future<?> f = exec.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        queue.put(i);
+                    }
+                    return null;
+                });
+                for (int i = 0; i < n; i++) {
+                    assertEquals((Integer)i, queue.take());
+                }
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+    @Test
+    public void testBlockingQueueViews() {
+        PTLQueue<Integer> queue = new PTLQueue<>(8);
+        assertEquals(0, queue.size());
+        assertEquals(8, queue.remainingCapacity());
+        assertNull(queue.peek());
+        assertFalse(queue.iterator().hasNext());
+
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        assertEquals(5, queue.size());
+        assertEquals(3, queue.remainingCapacity());
+        assertEquals((Integer)0, queue.peek());
+        assertEquals("[0, 1, 2, 3, 4]", queue.toString());
+        assertTrue(queue.contains(3));
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, queue.drainTo(out, 2));
+        assertEquals(Arrays.asList(0, 1), out);
+        assertEquals((Integer)2, queue.peek());
+
+        assertEquals(3, queue.drainTo(out));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), out);
+        assertTrue(queue.isEmpty());
+    }
+    @Test(timeout = 10000)
+    public void testAsExecutorWorkQueue() throws InterruptedException {
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, 
+                new PTLQueue<>(1024, new BlockingWaitStrategy()));
+        try {
+            int n = 1000;
+            CountDownLatch cdl = new CountDownLatch(n);
+            for (int i = 0; i < n; i++) {
+                exec.execute(cdl::countDown);
+            }
+            assertTrue(cdl.await(5, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdown();
+        }
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+    }
+    @Test
+    public void testDrainToRejectingCollection() {
+        PTLQueue<Integer> queue = new PTLQueue<>(8);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(i);
+        }
+        BlockingQueue<Integer> bounded = new ArrayBlockingQueue<>(3);
+        try {
+            queue.drainTo(bounded);
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // Queue full
+        }
+        assertEquals(Arrays.asList(0, 1, 2), new ArrayList<>(bounded));
+        // the queue is not wedged
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(10 + i));
+        }
+        List<Integer> out = new ArrayList<>();
+        assertEquals(8, queue.drainTo(out));
+        assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15, 16, 17), out);
+    }
+    @Test
+    public void testRemove() {
+        PTLQueue<Integer> queue = new PTLQueue<>(8);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+        }
+        assertTrue(queue.remove(0));
+        assertTrue(queue.remove(3));
+        assertFalse(queue.remove(3));
+        assertFalse(queue.remove(10));
+        assertEquals("[1, 2, 4, 5]", queue.toString());
+
+        Iterator<Integer> it = queue.iterator();
+        assertEquals((Integer)1, it.next());
+        it.remove();
+        try {
+            it.remove();
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals((Integer)2, queue.peek());
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, queue.drain(out::add, 3));
+        assertEquals(Arrays.asList(2, 4), out);
+        assertTrue(queue.remove(5));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        // the removed slots are free again
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(8));
+    }
+    @Test(timeout = 10000)
+    public void testExecutorRemoveAndShutdownNow() throws InterruptedException {
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+                new PTLQueue<>(16, new BlockingWaitStrategy()));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        exec.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                // shutdownNow interrupts the running task
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int j = i;
+            Runnable r = () -> fail("Should not run " + j);
+            tasks.add(r);
+            exec.execute(r);
+        }
+        Future<?> cancelled = exec.submit(() -> fail("Should not run"));
+        cancelled.cancel(false);
+
+        assertTrue(exec.remove(tasks.get(1)));
+        assertFalse(exec.remove(tasks.get(1)));
+        exec.purge();
+        assertEquals(3, exec.getQueue().toArray().length);
+
+        List<Runnable> left = exec.shutdownNow();
+        assertEquals(Arrays.asList(tasks.get(0), tasks.get(2), tasks.get(3)), left);
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+    }
     private static void await(CyclicBarrier b) {
         try {
             b.await();
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+
+import javax.management.*;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class QueueTelemetryTest {
+    @Test
+    public void testPTLQueueRejections() {
+        QueueTelemetry t = new QueueTelemetry();
+        PTLQueue<Integer> queue = new PTLQueue<>(2, BusySpinWaitStrategy.INSTANCE, t);
+        assertSame(t, queue.telemetry());
+
+        assertNull(queue.poll());
+        assertNull(queue.pollStrong());
+        queue.offer(1);
+        queue.offer(2);
+        assertFalse(queue.offer(3));
+        assertEquals(0, queue.offerBatch(new Integer[] { 3 }, 0, 1));
+
+        QueueTelemetry.Snapshot s = t.snapshot();
+        assertEquals(2, s.emptyRejections);
+        assertEquals(2, s.fullRejections);
+        assertEquals(0, s.offerCasFailures);
+        assertEquals(0, s.pollCasFailures);
+        assertEquals(0, s.pollSpuriousNulls);
+
+        t.reset();
+        assertEquals(0, t.snapshot().fullRejections);
+    }
+    @Test
+    public void testIETLQueueRejections() {
+        QueueTelemetry t = new QueueTelemetry();
+        IETLQueue<Integer> queue = new IETLQueue<>(2, BusySpinWaitStrategy.INSTANCE, t);
+
+        assertNull(queue.poll());
+        assertEquals(0, queue.drain(v -> { }, 4));
+        queue.offer(1);
+        queue.offer(2);
+        assertFalse(queue.offer(3));
+
+        QueueTelemetry.Snapshot s = t.snapshot();
+        assertEquals(2, s.emptyRejections);
+        assertEquals(1, s.fullRejections);
+    }
+    @Test(timeout = 10000)
+    public void testPutTakeSpins() throws Exception {
+        QueueTelemetry t = new QueueTelemetry();
+        PTLQueue<Integer> queue = new PTLQueue<>(1, new SpinYieldWaitStrategy(), t);
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            int n = 10000;
+            Future<?> f = exec.submit(() -> {
+                for (int i = 0; i < n; i++) {
+                    queue.put(i);
+                }
+                return null;
+            });
+            for (int i = 0; i < n; i++) {
+                assertEquals((Integer)i, queue.take());
+            }
+            f.get();
+        } finally {
+            exec.shutdown();
+        }
+        QueueTelemetry.Snapshot s = t.snapshot();
+        // the blocking calls don't count their failed attempts as rejections
+        assertEquals(0, s.fullRejections);
+        assertEquals(0, s.emptyRejections);
+        assertTrue(s.toString(), s.putSpins + s.takeSpins > 0);
+    }
+    @Test
+    public void testRegister() throws Exception {
+        QueueTelemetry t = new QueueTelemetry();
+        PTLQueue<Integer> queue = new PTLQueue<>(2, BusySpinWaitStrategy.INSTANCE, t);
+        queue.poll();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = t.register("test-queue");
+        try {
+            assertEquals(1L, server.getAttribute(on, "EmptyRejections"));
+            server.invoke(on, "reset", null, null);
+            assertEquals(0L, server.getAttribute(on, "EmptyRejections"));
+        } finally {
+            server.unregisterMBean(on);
+        }
+    }
+}
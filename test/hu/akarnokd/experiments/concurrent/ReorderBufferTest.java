@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+public class ReorderBufferTest {
+    @Test
+    public void testOutOfOrder() {
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32);
+        List<Integer> out = new ArrayList<>();
+        assertTrue(rb.offer(2, 2));
+        assertTrue(rb.offer(1, 1));
+        assertEquals(0, rb.drain(out::add));
+        assertTrue(rb.offer(0, 0));
+        assertEquals(3, rb.drain(out::add));
+        assertEquals(Arrays.asList(0, 1, 2), out);
+        assertEquals(3, rb.next());
+    }
+    @Test
+    public void testStopConsumesRejected() {
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32);
+        for (int i = 0; i < 5; i++) {
+            rb.offer(i, i);
+        }
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, rb.drain(v -> out.add(v) && v < 1));
+        assertEquals(3, rb.drain(out::add));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), out);
+    }
+    @Test
+    public void testOfferBehindHead() {
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32);
+        for (int i = 0; i < 3; i++) {
+            rb.offer(i, i);
+        }
+        assertEquals(3, rb.drain(v -> true));
+        try {
+            rb.offer(2, 2);
+            fail("Should have thrown");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertTrue(rb.offer(3, 3));
+    }
+    @Test
+    public void testDrainThrowingConsumesValue() {
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32);
+        for (int i = 0; i < 3; i++) {
+            rb.offer(i, i);
+        }
+        try {
+            rb.drain(v -> {
+                if (v == 1) {
+                    throw new IllegalStateException();
+                }
+                return true;
+            });
+            fail("Should have thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(2, rb.next());
+        List<Integer> out = new ArrayList<>();
+        assertEquals(1, rb.drain(out::add));
+        assertEquals(Arrays.asList(2), out);
+    }
+    @Test(timeout = 10000)
+    public void testBlockingPutWokenByDrain() throws Exception {
+        BlockingWaitStrategy ws = new BlockingWaitStrategy(0);
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32, null, ws);
+        for (int i = 0; i < 32; i++) {
+            rb.offer(i, i);
+        }
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            // blocks until the drainer leaves the first bank
+            Future<Boolean> f = exec.submit(() -> rb.put(32, 32, 5, TimeUnit.SECONDS));
+            while (ws.waiters.get() == null) {
+                Thread.yield();
+            }
+            // the put may land while the drain is still running
+            assertEquals(32, rb.drain(v -> v != 31));
+            // well before the put's own timeout
+            assertTrue(f.get(1, TimeUnit.SECONDS));
+            assertNull(ws.waiters.get());
+        } finally {
+            exec.shutdown();
+        }
+    }
+    @Test
+    public void testWindow() {
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(32);
+        assertTrue(rb.offer(31, 31));
+        assertFalse(rb.offer(32, 32));
+        for (int i = 0; i < 16; i++) {
+            rb.offer(i, i);
+        }
+        // leaving the first bank of 16 opens its next lap
+        assertEquals(16, rb.drain(v -> true));
+        assertTrue(rb.offer(47, 47));
+        assertFalse(rb.offer(48, 48));
+        for (int i = 16; i < 31; i++) {
+            rb.offer(i, i);
+        }
+        assertEquals(16, rb.drain(v -> true));
+        assertTrue(rb.offer(63, 63));
+        assertEquals(0, rb.drain(v -> true));
+    }
+    @Test
+    public void testRecycleIntoPool() {
+        BankPool<AtomicReferenceArray<Object>> pool = new BankPool<>(1024);
+        ReorderBuffer<Integer> rb = new ReorderBuffer<>(64, pool);
+        for (int i = 0; i < 40; i++) {
+            rb.offer(i, i);
+        }
+        int[] expected = { 0 };
+        assertEquals(40, rb.drain(v -> v == expected[0]++));
+        // banks of 16 and 16 left behind, the one of 32 is still in use
+        assertEquals(32, pool.pooledSlots());
+        // the window ends where the bank of 32 starts in the next lap
+        for (int i = 40; i < 96; i++) {
+            assertTrue(rb.offer(i, i));
+        }
+        assertFalse(rb.offer(96, 96));
+        assertEquals(56, rb.drain(v -> v == expected[0]++));
+        assertEquals(96, expected[0]);
+        // the whole ring is behind the drainer
+        assertEquals(64, pool.pooledSlots());
+    }
+    @Test(timeout = 20000)
+    public void testConcurrentWorkers() throws Exception {
+        BankPool<AtomicReferenceArray<Object>> pool = new BankPool<>(1 << 12);
+        ReorderBuffer<Long> rb = new ReorderBuffer<>(1024, pool, new SpinYieldWaitStrategy());
+        int n = 200000;
+        int workers = 3;
+        ExecutorService exec = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> fs = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                int k = w;
+                fs.add(exec.submit(() -> {
+                    for (long s = k; s < n; s += workers) {
+                        assertTrue(rb.put(s, s, 5, TimeUnit.SECONDS));
+                    }
+                    return null;
+                }));
+            }
+            long[] expected = { 0 };
+            while (expected[0] < n) {
+                if (rb.drain(v -> {
+                    assertEquals(expected[0]++, v.longValue());
+                    return true;
+                }) == 0) {
+                    Thread.yield();
+                }
+            }
+            for (Future<?> f : fs) {
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
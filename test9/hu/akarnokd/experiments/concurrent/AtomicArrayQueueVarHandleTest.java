@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class AtomicArrayQueueVarHandleTest {
+    @Test
+    public void testSimpleOfferPoll() {
+        Queue<Object> saq = new AtomicArrayQueueVarHandle(8, 64 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            saq.offer(i);
+            assertEquals(i, saq.poll());
+        }
+    }
+    @Test
+    public void testTriggerGrowthHalfwayReading() {
+        Queue<Object> saq = new AtomicArrayQueueVarHandle(8, 16);
+        for (int i = 0; i < 4; i++) {
+            saq.offer(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, saq.poll());
+        }
+        for (int i = 4; i < 16; i++) {
+            saq.offer(i);
+        }
+        for (int i = 4; i < 16; i++) {
+            assertEquals(i, saq.poll());
+        }
+    }
+    @Test
+    public void testCapacityLimit() {
+        Queue<Object> aaq = new AtomicArrayQueueVarHandle(8, 16);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(aaq.offer(i));
+        }
+        assertFalse(aaq.offer(16));
+        assertEquals(16, aaq.size());
+        
+        assertEquals(0, aaq.poll());
+
+        assertTrue(aaq.offer(16));
+    }
+    @Test
+    public void testPeekBeforeAfterGrow() {
+        AtomicArrayQueueVarHandle queue = new AtomicArrayQueueVarHandle(4, 16);
+        for (int i = 1; i <= 4; i++) {
+            queue.offer(i);
+        }
+        assertEquals(1, queue.peek());
+        for (int i = 5; i <= 8; i++) {
+            queue.offer(i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertEquals(5, queue.peek());
+    }
+    @Test
+    public void testFillDrain() {
+        AtomicArrayQueueVarHandle queue = new AtomicArrayQueueVarHandle(4, 16);
+        int[] k = { 0 };
+        assertEquals(10, queue.fill(() -> k[0]++, 10));
+        List<Object> out = new ArrayList<>();
+        assertEquals(3, queue.drain(out::add, 3));
+        assertEquals(Arrays.asList(0, 1, 2), out);
+
+        assertEquals(9, queue.fill(() -> k[0]++, 20));
+        assertFalse(queue.offer(100));
+        assertEquals(16, queue.drain(out::add, 100));
+        for (int i = 0; i < 19; i++) {
+            assertEquals(i, out.get(i));
+        }
+        assertNull(queue.poll());
+    }
+    @Test(timeout = 10000)
+    public void testFillDrainConcurrent() throws Exception {
+        AtomicArrayQueueVarHandle queue = new AtomicArrayQueueVarHandle(8, 256);
+        int n = 1000000;
+        Thread t = new Thread(() -> {
+            int[] k = { 0 };
+            while (k[0] < n) {
+                if (queue.fill(() -> k[0]++, Math.min(64, n - k[0])) == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        t.start();
+        int[] expected = { 0 };
+        while (expected[0] < n) {
+            if (queue.drain(v -> assertEquals(expected[0]++, v), 128) == 0) {
+                Thread.yield();
+            }
+        }
+        t.join();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package hu.akarnokd.experiments.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class AtomicResizableArrayVarHandleTest {
+    @Test(timeout = 10000)
+    public void testSimpleAdd() {
+        Random rnd = new Random();
+        for (int k = 0; k < 100; k++) {
+            AtomicResizableArrayVarHandle ara = new AtomicResizableArrayVarHandle();
+            
+            int n = rnd.nextInt(100000);
+            
+            for (int i = 0; i < n; i++) {
+                ara.insert(i, i);
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, ara.get(i));
+            }
+            assertEquals(n, ara.size());
+            
+            List<Object> list = new ArrayList<>();
+            ara.lazyForEach(list::add);
+            assertEquals(n, list.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, list.get(i));
+            }
+        }
+    }
+    @Test
+    public void testConsumeWhileAndClear() {
+        AtomicResizableArrayVarHandle ara = new AtomicResizableArrayVarHandle();
+        for (int i = 0; i < 40; i++) {
+            ara.insert(i, i);
+        }
+        assertTrue(ara.lazyConsumeWhile(v -> true));
+        assertNull(ara.getOrNull(0));
+        assertNull(ara.getOrNull(20));
+
+        for (int i = 0; i < 40; i++) {
+            ara.insert(i, i);
+        }
+        assertFalse(ara.lazyConsumeWhile(v -> (Integer)v < 5));
+        ara.lazyClear();
+        assertEquals(0, ara.size());
+        
+        ara.lazyReset();
+        assertNull(ara.getOrNull(0));
+    }
+}